@@ -0,0 +1,167 @@
+package mili.wifiscanner;
+
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Requests scans from a {@link ScanSource} at an interval that follows what the device does.
+ * <p>
+ * After every scan the interval is halved when the fingerprint changed a lot since the previous
+ * scan or the prediction was unsure, since the device is probably moving. It grows by half when
+ * the fingerprint barely changed and the prediction (if any) was confident. The interval stays
+ * within [base / 4, base * 4] of the configured base interval. If the platform throttles scans,
+ * at most {@code maxScans} requests are issued per throttle window, and a rejected request
+ * backs off to the longest interval.
+ */
+public class AdaptiveScanScheduler {
+    private static final String TAG = "AdaptiveScanScheduler";
+
+    // Root mean square RSSI change per AP, in dB, above which the device counts as moving and
+    // below which it counts as still.
+    private static final double MOVING_DB = 8;
+    private static final double STILL_DB = 3;
+    // RSSI, in dBm, of an AP seen in only one of two scans. At about the receiver floor, so a
+    // weak AP coming and going counts as little change and a strong one as a lot.
+    private static final int MISSING_RSSI = -100;
+    // Prediction confidence below which scans speed up and above which they may slow down.
+    private static final float UNSURE_CONFIDENCE = 0.6f;
+    private static final float SURE_CONFIDENCE = 0.9f;
+    private static final int MIN_INTERVAL = 1000;
+
+    /**
+     * Notified about every scan request.
+     */
+    public interface Callback {
+        void onScanRequested(boolean accepted);
+    }
+
+    private final Handler mHandler;
+    private final ScanSource mScanSource;
+    private Callback mCallback;
+
+    private int mMinInterval;
+    private int mMaxInterval;
+    private int mInterval;
+    private boolean mRunning;
+    private Fingerprint mLastFingerprint;
+
+    // Times of the last scan requests, for the platform throttle. Empty when not throttled.
+    private long[] mRequestTimes = new long[0];
+    private int mRequestIndex;
+    private long mThrottleWindow;
+
+    private final Runnable mRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!mRunning) {
+                return;
+            }
+            long wait = throttleWait(SystemClock.elapsedRealtime());
+            if (wait > 0) {
+                mHandler.postDelayed(this, wait);
+                return;
+            }
+            recordRequest(SystemClock.elapsedRealtime());
+            boolean accepted = mScanSource.requestScan();
+            if (!accepted) {
+                Log.d(TAG, "Scan request rejected, backing off.");
+                mInterval = mMaxInterval;
+            }
+            if (mCallback != null) {
+                mCallback.onScanRequested(accepted);
+            }
+            mHandler.postDelayed(this, mInterval);
+        }
+    };
+
+    public AdaptiveScanScheduler(Handler handler, ScanSource scanSource, int baseInterval) {
+        mHandler = handler;
+        mScanSource = scanSource;
+        setBaseInterval(baseInterval);
+    }
+
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    /**
+     * Sets the interval the scheduler starts with and adapts around, in milliseconds.
+     */
+    public void setBaseInterval(int baseInterval) {
+        mMinInterval = Math.max(MIN_INTERVAL, baseInterval / 4);
+        mMaxInterval = Math.max(mMinInterval, baseInterval * 4);
+        mInterval = Math.max(mMinInterval, Math.min(mMaxInterval, baseInterval));
+    }
+
+    /**
+     * Limits the requests to maxScans per window, as the platform does for foreground apps.
+     * A maxScans of 0 removes the limit.
+     */
+    public void setThrottle(int maxScans, long windowMillis) {
+        mRequestTimes = new long[maxScans];
+        mRequestIndex = 0;
+        mThrottleWindow = windowMillis;
+    }
+
+    /**
+     * Returns the current interval between scan requests, in milliseconds.
+     */
+    public int getInterval() {
+        return mInterval;
+    }
+
+    public void start() {
+        mRunning = true;
+        mLastFingerprint = null;
+        mHandler.removeCallbacks(mRunnable);
+        mHandler.post(mRunnable);
+    }
+
+    public void stop() {
+        mRunning = false;
+        mHandler.removeCallbacks(mRunnable);
+    }
+
+    /**
+     * Adapts the interval to a scan that arrived.
+     *
+     * @param confidence Confidence of the prediction made for the scan, or NaN if there was
+     *                   none.
+     */
+    public void onScanResult(Fingerprint fingerprint, float confidence) {
+        Fingerprint last = mLastFingerprint;
+        mLastFingerprint = fingerprint;
+        if (last == null) {
+            return;
+        }
+        int aps = Math.max(1, Math.max(last.size(), fingerprint.size()));
+        double change = Fingerprint.distance(last, fingerprint, MISSING_RSSI)
+                / Math.sqrt(aps);
+        boolean unsure = !Float.isNaN(confidence) && confidence < UNSURE_CONFIDENCE;
+        boolean sure = Float.isNaN(confidence) || confidence > SURE_CONFIDENCE;
+
+        if (change > MOVING_DB || unsure) {
+            mInterval = Math.max(mMinInterval, mInterval / 2);
+        } else if (change < STILL_DB && sure) {
+            mInterval = Math.min(mMaxInterval, mInterval * 3 / 2);
+        }
+    }
+
+    private long throttleWait(long now) {
+        if (mRequestTimes.length == 0) {
+            return 0;
+        }
+        // The oldest of the last maxScans requests must have left the window.
+        long oldest = mRequestTimes[mRequestIndex];
+        return oldest == 0 ? 0 : oldest + mThrottleWindow - now;
+    }
+
+    private void recordRequest(long now) {
+        if (mRequestTimes.length == 0) {
+            return;
+        }
+        mRequestTimes[mRequestIndex] = now;
+        mRequestIndex = (mRequestIndex + 1) % mRequestTimes.length;
+    }
+}
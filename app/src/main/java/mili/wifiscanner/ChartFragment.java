@@ -1,5 +1,6 @@
 package mili.wifiscanner;
 
+import android.graphics.PointF;
 import android.os.Bundle;
 
 import androidx.fragment.app.Fragment;
@@ -9,8 +10,6 @@ import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 
-import java.util.List;
-
 /**
  * A simple {@link Fragment} subclass.
  * Use the {@link ChartFragment#newInstance} factory method to
@@ -28,6 +27,9 @@ public class ChartFragment extends Fragment {
     private String mParam1;
     private String mParam2;
 
+    private FloorPlanLayer mFloorPlan;
+    private HeatmapLayer mHeatmap;
+
     public ChartFragment() {
         // Required empty public constructor
         Log.d(TAG, "ChartFragment constructor called.");
@@ -64,7 +66,11 @@ public class ChartFragment extends Fragment {
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
         // Inflate the layout for this fragment
-        return inflater.inflate(R.layout.fragment_chart, container, false);
+        View view = inflater.inflate(R.layout.fragment_chart, container, false);
+        MyChartView chart = view.findViewById(R.id.chart);
+        chart.setImage(mFloorPlan);
+        chart.setHeatmap(mHeatmap);
+        return view;
     }
 
     public void setMode() {
@@ -72,7 +78,39 @@ public class ChartFragment extends Fragment {
         chart.setMode();
     }
 
-    public List<Float> getPath() {
+    /**
+     * Shows the floor plan behind the chart, now and whenever the chart is shown again.
+     */
+    public void setImage(FloorPlanLayer floorPlan) {
+        mFloorPlan = floorPlan;
+        MyChartView chart = getView() == null ? null : getView().findViewById(R.id.chart);
+        if (chart != null) {
+            chart.setImage(floorPlan);
+        }
+    }
+
+    /**
+     * Shows the heatmap on the chart, now and whenever the chart is shown again.
+     */
+    public void setHeatmap(HeatmapLayer heatmap) {
+        mHeatmap = heatmap;
+        MyChartView chart = getView() == null ? null : getView().findViewById(R.id.chart);
+        if (chart != null) {
+            chart.setHeatmap(heatmap);
+        }
+    }
+
+    /**
+     * Stores the position marked last on the chart in out.
+     *
+     * @return False if the chart is not shown or nothing was drawn on it yet.
+     */
+    public boolean getPosition(PointF out) {
+        MyChartView chart = getView() == null ? null : getView().findViewById(R.id.chart);
+        return chart != null && chart.getLastPoint(out);
+    }
+
+    public FloatSeries getPath() {
         MyChartView chart = getActivity().findViewById(R.id.chart);
         return chart.getSeriesData();
     }
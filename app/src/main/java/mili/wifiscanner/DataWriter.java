@@ -1,6 +1,5 @@
 package mili.wifiscanner;
 
-import android.net.wifi.ScanResult;
 import android.os.Environment;
 import android.util.Log;
 
@@ -10,11 +9,11 @@ import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.Date;
-import java.util.List;
 
 
 public class DataWriter {
     private static String TAG = "DataWriter";
+    private static final LatencyHistogram WRITE_TIME = Metrics.histogram(Metrics.WRITE);
     private String mFilePath;
     
     public DataWriter(CharSequence type, String folderName) {
@@ -41,36 +40,75 @@ public class DataWriter {
     }
 
     private static String getTimeStamp() {
+        return getTimeStamp(System.currentTimeMillis());
+    }
+
+    private static String getTimeStamp(long millis) {
         SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
-        Date curDate = new Date(System.currentTimeMillis());
+        Date curDate = new Date(millis);
         return formatter.format(curDate);
     }
 
-    public void writeToFiles(CharSequence roomId, List<ScanResult> results) {
+    public void writeToFiles(CharSequence roomId, ScanSnapshot snapshot) {
+        long start = System.nanoTime();
+        Tracer.begin(Metrics.WRITE);
         try {
-            Log.d(TAG, "Write to " + mFilePath);
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append("room " + roomId + " " + getTimeStamp());
-            stringBuilder.append("\n                BSSID  RSSI\n");
-            for (int i = 0; i<results.size(); i++) {
-                stringBuilder.append(i + " " + results.get(i).BSSID + " " + results.get(i).level + "\n");
-            }
-            stringBuilder.append("\n");
             OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(mFilePath, true));
-            outputStreamWriter.write(stringBuilder.toString());
+            outputStreamWriter.write(formatScan(roomId, snapshot));
             outputStreamWriter.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
+        Tracer.end();
+        WRITE_TIME.recordSince(start);
+    }
+
+    /**
+     * Writes a one line marker for a scan that repeated the previous one, instead of the
+     * whole scan again.
+     */
+    public void writeRepeat(CharSequence roomId, ScanSnapshot snapshot) {
+        long start = System.nanoTime();
+        Tracer.begin(Metrics.WRITE);
+        try {
+            OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(mFilePath, true));
+            outputStreamWriter.write(formatRepeat(roomId, snapshot));
+            outputStreamWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Tracer.end();
+        WRITE_TIME.recordSince(start);
+    }
+
+    /**
+     * Returns the block {@link #writeToFiles} writes for a scan.
+     */
+    static String formatScan(CharSequence roomId, ScanSnapshot snapshot) {
+        StringBuilder stringBuilder = new StringBuilder();
+        stringBuilder.append("room " + roomId + " " + getTimeStamp(snapshot.getTimestamp()));
+        stringBuilder.append("\n                BSSID  RSSI\n");
+        for (int i = 0; i<snapshot.size(); i++) {
+            stringBuilder.append(i + " " + ScanSnapshot.formatMac(snapshot.macAt(i)) + " " + snapshot.rssiAt(i) + "\n");
+        }
+        stringBuilder.append("\n");
+        return stringBuilder.toString();
+    }
+
+    /**
+     * Returns the marker {@link #writeRepeat} writes for a repeated scan.
+     */
+    static String formatRepeat(CharSequence roomId, ScanSnapshot snapshot) {
+        return "repeat room " + roomId + " " + getTimeStamp(snapshot.getTimestamp()) + "\n\n";
     }
 
-    public void writePath(List<Float> path) {
+    public void writePath(FloatSeries path) {
         try {
             Log.d(TAG, "Write to " + mFilePath);
-            StringBuilder stringBuilder = new StringBuilder();
-            stringBuilder.append(getTimeStamp() + "\n");
-            for (Float f : path) {
-                stringBuilder.append(f + "\n");
+            StringBuilder stringBuilder = new StringBuilder(32 + path.size() * 12);
+            stringBuilder.append(getTimeStamp()).append('\n');
+            for (int i = 0; i < path.size(); i++) {
+                stringBuilder.append(path.get(i)).append('\n');
             }
             OutputStreamWriter outputStreamWriter = new OutputStreamWriter(new FileOutputStream(mFilePath, true));
             outputStreamWriter.write(stringBuilder.toString());
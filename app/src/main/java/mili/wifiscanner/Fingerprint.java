@@ -0,0 +1,73 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+
+/**
+ * A sparse RSSI fingerprint: parallel arrays of vocabulary indices (ascending) and RSSI values
+ * of the APs seen in one scan. APs that were not seen are implicitly at the missing RSSI, so
+ * the cost of everything working on a fingerprint grows with the number of visible APs rather
+ * than with the size of the vocabulary.
+ */
+public class Fingerprint {
+    private final int[] mIndices;
+    private final int[] mValues;
+    private final int mSize;
+
+    /**
+     * Wraps the given arrays without copying. Indices must be ascending and unique within the
+     * first size entries.
+     */
+    public Fingerprint(int[] indices, int[] values, int size) {
+        mIndices = indices;
+        mValues = values;
+        mSize = size;
+    }
+
+    /**
+     * Returns the number of visible APs.
+     */
+    public int size() {
+        return mSize;
+    }
+
+    public int indexAt(int i) {
+        return mIndices[i];
+    }
+
+    public int valueAt(int i) {
+        return mValues[i];
+    }
+
+    /**
+     * Writes the dense feature vector into out, which must be at least as long as the
+     * vocabulary. Entries of APs that were not seen are set to missing.
+     */
+    public void toDense(double[] out, double missing) {
+        Arrays.fill(out, missing);
+        for (int i = 0; i < mSize; i++) {
+            out[mIndices[i]] = mValues[i];
+        }
+    }
+
+    /**
+     * Returns the Euclidean distance between two fingerprints, treating APs seen in only one
+     * of them as being at the missing RSSI in the other. Runs as a merge over both index lists.
+     */
+    public static double distance(Fingerprint a, Fingerprint b, int missing) {
+        double sum = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.mSize || j < b.mSize) {
+            int d;
+            if (j >= b.mSize || (i < a.mSize && a.mIndices[i] < b.mIndices[j])) {
+                d = a.mValues[i++] - missing;
+            } else if (i >= a.mSize || b.mIndices[j] < a.mIndices[i]) {
+                d = b.mValues[j++] - missing;
+            } else {
+                d = a.mValues[i++] - b.mValues[j++];
+            }
+            sum += (double) d * d;
+        }
+        return Math.sqrt(sum);
+    }
+}
@@ -0,0 +1,103 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+
+/**
+ * Turns scan snapshots into sparse {@link Fingerprint}s over a fixed BSSID vocabulary.
+ * <p>
+ * Each AP is looked up once in an open-addressing index keyed by the packed MAC, so
+ * vectorizing a scan is O(visible APs) instead of searching the scan for every BSSID of the
+ * vocabulary. The index is never changed after construction and may be shared by threads.
+ */
+public class FingerprintVectorizer {
+    private static final LatencyHistogram VECTORIZE_TIME = Metrics.histogram(Metrics.VECTORIZE);
+
+    private final String[] mBssids;
+    private final long[] mKeys;
+    private final int[] mSlots;
+    private final int mMask;
+
+    public FingerprintVectorizer(String[] bssids) {
+        mBssids = bssids;
+        int capacity = Integer.highestOneBit(Math.max(bssids.length, 1) * 4);
+        mMask = capacity - 1;
+        mKeys = new long[capacity];
+        mSlots = new int[capacity];
+        Arrays.fill(mKeys, -1);
+        for (int i = 0; i < bssids.length; i++) {
+            long mac = ScanSnapshot.packMac(bssids[i]);
+            if (mac < 0) {
+                continue;
+            }
+            int slot = slotOf(mac);
+            if (mKeys[slot] != mac) {
+                mKeys[slot] = mac;
+                mSlots[slot] = i;
+            }
+        }
+    }
+
+    private int slotOf(long mac) {
+        int slot = (int) ((mac * 0x9E3779B97F4A7C15L) >>> 32) & mMask;
+        while (mKeys[slot] != -1 && mKeys[slot] != mac) {
+            slot = (slot + 1) & mMask;
+        }
+        return slot;
+    }
+
+    public int size() {
+        return mBssids.length;
+    }
+
+    public String[] getBssids() {
+        return mBssids;
+    }
+
+    /**
+     * Returns the vocabulary index of the packed MAC, or -1 if it is not part of the vocabulary.
+     */
+    public int indexOf(long mac) {
+        if (mac < 0) {
+            return -1;
+        }
+        int slot = slotOf(mac);
+        return mKeys[slot] == mac ? mSlots[slot] : -1;
+    }
+
+    /**
+     * Builds the fingerprint of a scan. BSSIDs outside the vocabulary are dropped and a BSSID
+     * reported twice keeps its strongest reading.
+     */
+    public Fingerprint vectorize(ScanSnapshot snapshot) {
+        long start = System.nanoTime();
+        Tracer.begin(Metrics.VECTORIZE);
+        // Sorting (index, value) pairs packed into longs keeps them together without boxing.
+        long[] packed = new long[snapshot.size()];
+        int n = 0;
+        for (int j = 0; j < snapshot.size(); j++) {
+            int b = indexOf(snapshot.macAt(j));
+            if (b >= 0) {
+                packed[n++] = ((long) b << 32) | (snapshot.rssiAt(j) & 0xffffffffL);
+            }
+        }
+        Arrays.sort(packed, 0, n);
+
+        int[] indices = new int[n];
+        int[] values = new int[n];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            int index = (int) (packed[i] >>> 32);
+            int value = (int) packed[i];
+            if (size > 0 && indices[size - 1] == index) {
+                values[size - 1] = Math.max(values[size - 1], value);
+            } else {
+                indices[size] = index;
+                values[size] = value;
+                size++;
+            }
+        }
+        Tracer.end();
+        VECTORIZE_TIME.recordSince(start);
+        return new Fingerprint(indices, values, size);
+    }
+}
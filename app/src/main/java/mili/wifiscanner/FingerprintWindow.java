@@ -0,0 +1,213 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+
+/**
+ * Combines the fingerprints of the last scans into one, to classify on less noisy readings.
+ * <p>
+ * The window holds at most a fixed number of scans and drops scans older than a maximum age.
+ * Per BSSID it keeps the detection count, the RSSI sum and, for the median and maximum, a
+ * histogram with one bin per dB, all in primitive arrays allocated once. Adding or dropping a
+ * scan only touches the APs of that scan, and the APs seen in the window are tracked in a
+ * dense set, so aggregating costs O(APs in the window) rather than O(vocabulary).
+ * <p>
+ * Not thread-safe; a window is meant to be owned by the thread doing the inference.
+ */
+public class FingerprintWindow {
+    public static final int RSSI_MIN = -120;
+    public static final int RSSI_MAX = 0;
+    private static final int NUM_VALUES = RSSI_MAX - RSSI_MIN + 1;
+
+    /**
+     * How the readings of one AP in the window are combined.
+     */
+    public enum Aggregate {
+        MEAN,
+        MEDIAN,
+        MAX
+    }
+
+    private final int mCapacity;
+    private final long mMaxAge;
+    private final Aggregate mAggregate;
+
+    // The scans in the window, oldest at mHead
+    private final Fingerprint[] mScans;
+    private final long[] mTimes;
+    private int mHead;
+    private int mNumScans;
+
+    // Per BSSID
+    private final int[] mCount;
+    private final int[] mSum;
+    // [bssid][value - RSSI_MIN]; only for MEDIAN and MAX
+    private final int[] mHistogram;
+
+    // BSSIDs with a count above 0 and the position of every BSSID in that set, or -1
+    private final int[] mActive;
+    private final int[] mActivePositions;
+    private int mNumActive;
+
+    /**
+     * @param numBssids Size of the vocabulary the fingerprints are over.
+     * @param capacity Maximum number of scans in the window.
+     * @param maxAge Maximum age of a scan in the window, in milliseconds, or 0 for no limit.
+     */
+    public FingerprintWindow(int numBssids, int capacity, long maxAge, Aggregate aggregate) {
+        mCapacity = Math.max(1, capacity);
+        mMaxAge = maxAge;
+        mAggregate = aggregate;
+        mScans = new Fingerprint[mCapacity];
+        mTimes = new long[mCapacity];
+        mCount = new int[numBssids];
+        mSum = new int[numBssids];
+        mHistogram = aggregate == Aggregate.MEAN ? null : new int[numBssids * NUM_VALUES];
+        mActive = new int[numBssids];
+        mActivePositions = new int[numBssids];
+        Arrays.fill(mActivePositions, -1);
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public Aggregate getAggregate() {
+        return mAggregate;
+    }
+
+    /**
+     * Returns the number of scans in the window.
+     */
+    public int numScans() {
+        return mNumScans;
+    }
+
+    /**
+     * Returns in how many scans of the window the BSSID was seen.
+     */
+    public int getDetections(int bssid) {
+        return mCount[bssid];
+    }
+
+    /**
+     * Adds a scan, dropping the oldest one if the window is full and all that are too old.
+     *
+     * @param timestamp Time of the scan, in milliseconds.
+     */
+    public void add(long timestamp, Fingerprint fingerprint) {
+        expire(timestamp);
+        if (mNumScans == mCapacity) {
+            removeOldest();
+        }
+        int slot = (mHead + mNumScans) % mCapacity;
+        mScans[slot] = fingerprint;
+        mTimes[slot] = timestamp;
+        mNumScans++;
+        for (int i = 0; i < fingerprint.size(); i++) {
+            int b = fingerprint.indexAt(i);
+            int value = clamp(fingerprint.valueAt(i));
+            if (mCount[b]++ == 0) {
+                mActivePositions[b] = mNumActive;
+                mActive[mNumActive++] = b;
+            }
+            mSum[b] += value;
+            if (mHistogram != null) {
+                mHistogram[b * NUM_VALUES + value - RSSI_MIN]++;
+            }
+        }
+    }
+
+    /**
+     * Drops the scans older than the maximum age at the given time.
+     */
+    public void expire(long now) {
+        if (mMaxAge <= 0) {
+            return;
+        }
+        while (mNumScans > 0 && now - mTimes[mHead] > mMaxAge) {
+            removeOldest();
+        }
+    }
+
+    public void clear() {
+        while (mNumScans > 0) {
+            removeOldest();
+        }
+    }
+
+    private void removeOldest() {
+        Fingerprint fingerprint = mScans[mHead];
+        mScans[mHead] = null;
+        mHead = (mHead + 1) % mCapacity;
+        mNumScans--;
+        for (int i = 0; i < fingerprint.size(); i++) {
+            int b = fingerprint.indexAt(i);
+            int value = clamp(fingerprint.valueAt(i));
+            mSum[b] -= value;
+            if (mHistogram != null) {
+                mHistogram[b * NUM_VALUES + value - RSSI_MIN]--;
+            }
+            if (--mCount[b] == 0) {
+                // Moves the last active BSSID into the freed position.
+                int position = mActivePositions[b];
+                int last = mActive[--mNumActive];
+                mActive[position] = last;
+                mActivePositions[last] = position;
+                mActivePositions[b] = -1;
+            }
+        }
+    }
+
+    /**
+     * Returns the combined fingerprint of the window, over the BSSIDs seen in at least
+     * minDetections of its scans.
+     */
+    public Fingerprint aggregate(int minDetections) {
+        int[] indices = new int[mNumActive];
+        int size = 0;
+        for (int i = 0; i < mNumActive; i++) {
+            if (mCount[mActive[i]] >= minDetections) {
+                indices[size++] = mActive[i];
+            }
+        }
+        Arrays.sort(indices, 0, size);
+        int[] values = new int[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = valueOf(indices[i]);
+        }
+        return new Fingerprint(indices, values, size);
+    }
+
+    private int valueOf(int b) {
+        int count = mCount[b];
+        switch (mAggregate) {
+            case MEDIAN: {
+                // Lower median: the value of the ((count + 1) / 2)th smallest reading.
+                int rank = (count + 1) / 2;
+                int offset = b * NUM_VALUES;
+                for (int v = 0; v < NUM_VALUES; v++) {
+                    rank -= mHistogram[offset + v];
+                    if (rank <= 0) {
+                        return v + RSSI_MIN;
+                    }
+                }
+                return RSSI_MAX;
+            }
+            case MAX: {
+                int offset = b * NUM_VALUES;
+                for (int v = NUM_VALUES - 1; v > 0; v--) {
+                    if (mHistogram[offset + v] > 0) {
+                        return v + RSSI_MIN;
+                    }
+                }
+                return RSSI_MIN;
+            }
+            default:
+                return Math.round((float) mSum[b] / count);
+        }
+    }
+
+    private static int clamp(int rssi) {
+        return Math.max(RSSI_MIN, Math.min(RSSI_MAX, rssi));
+    }
+}
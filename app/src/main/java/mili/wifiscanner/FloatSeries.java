@@ -0,0 +1,123 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+
+/**
+ * A growable series of floats, backed by one primitive array, for chart paths of any length.
+ * <p>
+ * Appending amortises to a plain array store, and values are read one at a time with
+ * {@link #get} or in bulk with {@link #copyTo}, so neither boxes. {@link #asReadOnly} gives
+ * other classes a live view of the series that they cannot modify. Like the views using it,
+ * a series is not thread safe.
+ */
+public class FloatSeries {
+    private static final int INITIAL_CAPACITY = 64;
+
+    private float[] mData;
+    private int mSize;
+
+    public FloatSeries() {
+        this(INITIAL_CAPACITY);
+    }
+
+    public FloatSeries(int capacity) {
+        mData = new float[Math.max(1, capacity)];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public float get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index " + index + ", size " + size());
+        }
+        return mData[index];
+    }
+
+    public void add(float value) {
+        if (mSize == mData.length) {
+            mData = Arrays.copyOf(mData, mData.length * 2);
+        }
+        mData[mSize++] = value;
+    }
+
+    /**
+     * Appends a point as two values.
+     */
+    public void add(float x, float y) {
+        add(x);
+        add(y);
+    }
+
+    public void clear() {
+        mSize = 0;
+    }
+
+    /**
+     * Copies length values, starting at index, into dst at dstIndex.
+     */
+    public void copyTo(int index, float[] dst, int dstIndex, int length) {
+        if (index < 0 || length < 0 || index + length > size()) {
+            throw new IndexOutOfBoundsException("Range " + index + "+" + length
+                    + ", size " + size());
+        }
+        System.arraycopy(mData, index, dst, dstIndex, length);
+    }
+
+    public float[] toArray() {
+        return Arrays.copyOf(mData, mSize);
+    }
+
+    /**
+     * Returns a view of this series that follows its changes but throws
+     * {@link UnsupportedOperationException} on any change made through it.
+     */
+    public FloatSeries asReadOnly() {
+        return new ReadOnlyView(this);
+    }
+
+    private static final class ReadOnlyView extends FloatSeries {
+        private final FloatSeries mSource;
+
+        ReadOnlyView(FloatSeries source) {
+            super(1);
+            mSource = source;
+        }
+
+        @Override
+        public int size() {
+            return mSource.size();
+        }
+
+        @Override
+        public float get(int index) {
+            return mSource.get(index);
+        }
+
+        @Override
+        public void add(float value) {
+            throw new UnsupportedOperationException("Read-only series");
+        }
+
+        @Override
+        public void clear() {
+            throw new UnsupportedOperationException("Read-only series");
+        }
+
+        @Override
+        public void copyTo(int index, float[] dst, int dstIndex, int length) {
+            mSource.copyTo(index, dst, dstIndex, length);
+        }
+
+        @Override
+        public float[] toArray() {
+            return mSource.toArray();
+        }
+
+        @Override
+        public FloatSeries asReadOnly() {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,269 @@
+package mili.wifiscanner;
+
+import android.content.res.AssetManager;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A floor plan image behind the chart, decoded by region at the resolution of the viewport.
+ * <p>
+ * The image is scaled uniformly to fit the chart bounds and centered. It is cut into tiles of
+ * {@link #TILE_SIZE} decoded pixels, at levels of doubling
+ * {@link BitmapFactory.Options#inSampleSize}, and each frame draws the level that has at least
+ * one decoded pixel per screen pixel. Tiles are decoded one by one in the background with a
+ * {@link BitmapRegionDecoder}, into bitmaps reused through a {@link TileCache}, so the whole
+ * image is never decoded at full resolution.
+ * Until a tile is decoded, the matching part of a coarser cached tile is drawn instead, which
+ * keeps zooming smooth.
+ * <p>
+ * Missing tiles are decoded newest request first, and a request is dropped when its tile was
+ * not drawn in the last frame, so a fast pan or zoom does not leave a backlog of tiles that
+ * are no longer on screen. Drawn on the main thread.
+ */
+public class FloorPlanLayer {
+    private static final int TILE_SIZE = 256;
+    private static final int CACHE_BYTES = 16 * 1024 * 1024;
+    // Coarser levels searched for a stand-in tile
+    private static final int MAX_FALLBACK_LEVELS = 4;
+
+    private final BitmapRegionDecoder mDecoder;
+    private final int mImageWidth;
+    private final int mImageHeight;
+    private final int mMaxLevel;
+    // Chart units per image pixel, and the chart position of the top left corner of the image
+    private final float mScale;
+    private final float mLeft;
+    private final float mTop;
+
+    private final TileCache mCache = new TileCache(CACHE_BYTES, TILE_SIZE);
+    private final ExecutorService mDecodeExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Tiles waiting for a decode, the newest on top, and the frame each was last drawn in.
+    // Main thread only.
+    private final ArrayDeque<Long> mQueue = new ArrayDeque<>();
+    private final Map<Long, Integer> mRequestFrames = new HashMap<>();
+    private int mFrame;
+    private boolean mDecoding;
+    private final Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect mSrcRect = new Rect();
+    private final RectF mDstRect = new RectF();
+    private Runnable mOnTileReady;
+    private volatile boolean mShutdown;
+
+    /**
+     * Opens a floor plan from the assets, fitted into the given chart bounds, where top is the
+     * smaller y as in the chart viewport.
+     */
+    public static FloorPlanLayer fromAsset(AssetManager assets, String name, RectF bounds)
+            throws IOException {
+        try (InputStream in = assets.open(name)) {
+            return new FloorPlanLayer(BitmapRegionDecoder.newInstance(in, false), bounds);
+        }
+    }
+
+    public FloorPlanLayer(BitmapRegionDecoder decoder, RectF bounds) {
+        mDecoder = decoder;
+        mImageWidth = decoder.getWidth();
+        mImageHeight = decoder.getHeight();
+        mScale = Math.min(bounds.width() / mImageWidth, bounds.height() / mImageHeight);
+        mLeft = bounds.centerX() - mImageWidth * mScale / 2;
+        mTop = bounds.centerY() + mImageHeight * mScale / 2;
+        // The coarsest level fits the image into one tile.
+        int level = 0;
+        while (Math.max(mImageWidth, mImageHeight) >> level > TILE_SIZE) {
+            level++;
+        }
+        mMaxLevel = level;
+    }
+
+    /**
+     * Sets the callback run on the main thread when a tile is ready, usually an invalidate of
+     * the view drawing the layer.
+     */
+    public void setOnTileReady(Runnable onTileReady) {
+        mOnTileReady = onTileReady;
+    }
+
+    /**
+     * Stops decoding and releases the decoder and the tiles. The layer draws nothing afterwards.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        mQueue.clear();
+        mMainHandler.removeCallbacksAndMessages(null);
+        // Queued decodes are skipped, and the decoder is recycled after a running one.
+        mDecodeExecutor.execute(mDecoder::recycle);
+        mDecodeExecutor.shutdown();
+        mCache.clear();
+    }
+
+    /**
+     * Draws the tiles covering the viewport, which is shown in the content rectangle of the
+     * canvas, and requests the missing ones.
+     */
+    public void draw(Canvas canvas, RectF viewport, Rect contentRect) {
+        if (mShutdown || viewport.width() <= 0) {
+            return;
+        }
+        mFrame++;
+        float screenPerImagePixel = mScale * contentRect.width() / viewport.width();
+        int level = 0;
+        while (level < mMaxLevel && screenPerImagePixel * (2 << level) <= 1) {
+            level++;
+        }
+        // Image pixels per tile side at this level
+        int span = TILE_SIZE << level;
+        int firstColumn = (int) Math.floor(imageX(viewport.left) / span);
+        int lastColumn = (int) Math.floor(imageX(viewport.right) / span);
+        // Image y grows downwards, so the largest chart y is the first image row.
+        int firstRow = (int) Math.floor(imageY(viewport.bottom) / span);
+        int lastRow = (int) Math.floor(imageY(viewport.top) / span);
+        int columns = (mImageWidth + span - 1) / span;
+        int rows = (mImageHeight + span - 1) / span;
+        for (int row = Math.max(0, firstRow); row <= Math.min(rows - 1, lastRow); row++) {
+            for (int column = Math.max(0, firstColumn);
+                    column <= Math.min(columns - 1, lastColumn); column++) {
+                drawTile(canvas, viewport, contentRect, level, column, row);
+            }
+        }
+        decodeNext();
+    }
+
+    private void drawTile(Canvas canvas, RectF viewport, Rect contentRect,
+                          int level, int column, int row) {
+        long key = TileCache.keyOf(level, column, row);
+        TileCache.Tile tile = mCache.get(key);
+        int k = 0;
+        if (tile == null) {
+            request(key);
+            // Look for a coarser tile containing this one.
+            while (tile == null && ++k <= MAX_FALLBACK_LEVELS && level + k <= mMaxLevel) {
+                tile = mCache.get(TileCache.keyOf(level + k, column >> k, row >> k));
+            }
+            if (tile == null) {
+                return;
+            }
+        }
+        int span = TILE_SIZE << level;
+        int imageLeft = column * span;
+        int imageTop = row * span;
+        int imageRight = Math.min(mImageWidth, imageLeft + span);
+        int imageBottom = Math.min(mImageHeight, imageTop + span);
+        // The part of the tile bitmap showing this tile, in decoded pixels of its level
+        int sourceLevel = level + k;
+        int sourceLeft = imageLeft - (column >> k) * (TILE_SIZE << sourceLevel);
+        int sourceTop = imageTop - (row >> k) * (TILE_SIZE << sourceLevel);
+        mSrcRect.set(sourceLeft >> sourceLevel, sourceTop >> sourceLevel,
+                (sourceLeft + imageRight - imageLeft + (1 << sourceLevel) - 1) >> sourceLevel,
+                (sourceTop + imageBottom - imageTop + (1 << sourceLevel) - 1) >> sourceLevel);
+
+        float pixelsPerUnitX = contentRect.width() / viewport.width();
+        float pixelsPerUnitY = contentRect.height() / viewport.height();
+        mDstRect.set(
+                contentRect.left + (chartX(imageLeft) - viewport.left) * pixelsPerUnitX,
+                contentRect.bottom - (chartY(imageTop) - viewport.top) * pixelsPerUnitY,
+                contentRect.left + (chartX(imageRight) - viewport.left) * pixelsPerUnitX,
+                contentRect.bottom - (chartY(imageBottom) - viewport.top) * pixelsPerUnitY);
+        canvas.drawBitmap(tile.bitmap, mSrcRect, mDstRect, mTilePaint);
+    }
+
+    private void request(long key) {
+        if (mRequestFrames.put(key, mFrame) == null) {
+            mQueue.push(key);
+        }
+    }
+
+    /**
+     * Starts decoding the newest requested tile that was drawn in the last frame, unless a
+     * decode is running. Older requests are dropped.
+     */
+    private void decodeNext() {
+        while (!mDecoding && !mQueue.isEmpty()) {
+            long key = mQueue.pop();
+            if (mRequestFrames.get(key) != mFrame) {
+                mRequestFrames.remove(key);
+                continue;
+            }
+            mDecoding = true;
+            decode(key);
+        }
+    }
+
+    private void decode(final long key) {
+        int level = (int) (key >>> 48);
+        int column = (int) (key >>> 24) & 0xFFFFFF;
+        int row = (int) key & 0xFFFFFF;
+        int span = TILE_SIZE << level;
+        final Rect region = new Rect(column * span, row * span,
+                Math.min(mImageWidth, (column + 1) * span),
+                Math.min(mImageHeight, (row + 1) * span));
+        final int sampleSize = 1 << level;
+        mDecodeExecutor.execute(() -> {
+            if (mShutdown) {
+                return;
+            }
+            Bitmap bitmap = mCache.obtain();
+            // Edge tiles do not fill the reused bitmap.
+            bitmap.eraseColor(Color.TRANSPARENT);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = sampleSize;
+            options.inBitmap = bitmap;
+            Bitmap decoded = mDecoder.decodeRegion(region, options);
+            if (decoded != bitmap) {
+                // The decoder could not reuse the bitmap.
+                mCache.release(bitmap);
+            }
+            mMainHandler.post(() -> {
+                mRequestFrames.remove(key);
+                mDecoding = false;
+                if (mShutdown) {
+                    // The cache was already cleared, so nothing else would recycle the tile.
+                    if (decoded != null) {
+                        decoded.recycle();
+                    }
+                    return;
+                }
+                decodeNext();
+                if (decoded == null) {
+                    return;
+                }
+                mCache.put(key, new TileCache.Tile(decoded, sampleSize));
+                if (mOnTileReady != null) {
+                    mOnTileReady.run();
+                }
+            });
+        });
+    }
+
+    private float imageX(float chartX) {
+        return (chartX - mLeft) / mScale;
+    }
+
+    private float imageY(float chartY) {
+        return (mTop - chartY) / mScale;
+    }
+
+    private float chartX(int imageX) {
+        return mLeft + imageX * mScale;
+    }
+
+    private float chartY(int imageY) {
+        return mTop - imageY * mScale;
+    }
+}
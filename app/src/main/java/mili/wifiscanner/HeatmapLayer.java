@@ -0,0 +1,420 @@
+package mili.wifiscanner;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A heatmap of values measured at chart positions, e.g. the RSSI of one AP or the prediction
+ * confidence, interpolated with inverse distance weighting within a radius.
+ * <p>
+ * A sample only weighs on the points closer than the radius, with a weight that falls to zero
+ * there, and points with no sample that close are left transparent. The samples are kept in a
+ * grid of cells at least the radius wide, so a point only looks at the samples of its own and
+ * the eight neighbouring cells. Each cell keeps at most {@link #MAX_CELL_SAMPLES} samples, the
+ * newest replacing the oldest, which bounds the memory and the work per point however long a
+ * survey runs.
+ * <p>
+ * The chart area is cut into square tiles at levels of halving size, and each frame draws the
+ * tiles of the level whose tiles are closest to {@link #TILE_SCREEN_SIZE} on screen. Missing
+ * tiles are computed by a worker pool from a copy of the cells around them and kept in a
+ * {@link TileCache}, so panning back and forth reuses them. New samples are published at most
+ * every {@link #MIN_REFRESH_MILLIS} as one new version, which only outdates the tiles within
+ * the radius of a changed cell; outdated tiles are still drawn until their replacement is
+ * ready. Samples are added and the layer is drawn on the main thread.
+ */
+public class HeatmapLayer {
+    // Pixels computed per tile side; tiles are scaled with filtering when drawn
+    private static final int TILE_SIZE = 64;
+    // Preferred size of a tile on screen, in pixels
+    private static final float TILE_SCREEN_SIZE = 256;
+    private static final int MAX_LEVEL = 12;
+    private static final int CACHE_BYTES = 8 * 1024 * 1024;
+    private static final int ALPHA = 0x90;
+    private static final int PALETTE_SIZE = 256;
+    private static final int MAX_CELL_SAMPLES = 64;
+    private static final int MAX_CELLS = 64;
+    private static final long MIN_REFRESH_MILLIS = 500;
+
+    private final float mMinX;
+    private final float mMinY;
+    private final float mSize;
+    private final float mMinValue;
+    private final float mMaxValue;
+    private final float mRadius;
+    // Columns and rows of the sample grid, and the width of a cell in chart units
+    private final int mCells;
+    private final float mCellSize;
+    private final int[] mPalette = new int[PALETTE_SIZE];
+
+    private final TileCache mCache = new TileCache(CACHE_BYTES, TILE_SIZE);
+    private final ExecutorService mWorkers;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Paint mTilePaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF mTileRect = new RectF();
+    private final ThreadLocal<int[]> mPixels = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[TILE_SIZE * TILE_SIZE];
+        }
+    };
+
+    // Samples of each cell as x, y and value, the next one to replace once the cell is full,
+    // and the version the cell last changed in. Main thread only.
+    private final float[][] mCellSamples;
+    private final int[] mCellCounts;
+    private final int[] mCellOldest;
+    private final int[] mCellVersions;
+    private int mNumSamples;
+    // The published version, and the changes waiting for the next one
+    private int mVersion;
+    private boolean mRefreshScheduled;
+    private long mRefreshedAt;
+    private final Runnable mRefresh = this::refresh;
+    // Bumped by clear, so tiles of the samples before are dropped
+    private int mGeneration;
+    private final Set<Long> mPending = new HashSet<>();
+    private Runnable mOnTileReady;
+    private volatile boolean mShutdown;
+
+    /**
+     * The samples of a block of cells, copied for a worker: the samples of each cell, row by
+     * row, start at starts[cell] in values.
+     */
+    private static class Cells {
+        final int firstColumn;
+        final int firstRow;
+        final int columns;
+        final int rows;
+        final int[] starts;
+        final float[] values;
+
+        Cells(int firstColumn, int firstRow, int columns, int rows, int[] starts,
+              float[] values) {
+            this.firstColumn = firstColumn;
+            this.firstRow = firstRow;
+            this.columns = columns;
+            this.rows = rows;
+            this.starts = starts;
+            this.values = values;
+        }
+    }
+
+    /**
+     * @param minX     Left edge of the chart area in chart units.
+     * @param minY     Bottom edge of the chart area in chart units.
+     * @param size     Width and height of the level 0 tile, covering the chart area.
+     * @param minValue Value shown with the coldest color.
+     * @param maxValue Value shown with the hottest color.
+     * @param radius   Distance in chart units beyond which a sample has no influence.
+     */
+    public HeatmapLayer(float minX, float minY, float size, float minValue, float maxValue,
+                        float radius) {
+        mMinX = minX;
+        mMinY = minY;
+        mSize = size;
+        mMinValue = minValue;
+        mMaxValue = maxValue;
+        mRadius = radius;
+        mCells = Math.max(1, Math.min(MAX_CELLS, (int) (size / radius)));
+        mCellSize = size / mCells;
+        mCellSamples = new float[mCells * mCells][];
+        mCellCounts = new int[mCells * mCells];
+        mCellOldest = new int[mCells * mCells];
+        mCellVersions = new int[mCells * mCells];
+        mWorkers = Executors.newFixedThreadPool(
+                Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+        // Blue for the lowest value to red for the highest
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            float hue = 240f * (PALETTE_SIZE - 1 - i) / (PALETTE_SIZE - 1);
+            mPalette[i] = Color.HSVToColor(ALPHA, new float[]{hue, 1, 1});
+        }
+    }
+
+    /**
+     * Sets the callback run on the main thread when a tile is ready, usually an invalidate of
+     * the view drawing the layer.
+     */
+    public void setOnTileReady(Runnable onTileReady) {
+        mOnTileReady = onTileReady;
+    }
+
+    /**
+     * Adds a sample, shown with the next published version. Samples outside the chart area
+     * are kept in the border cells.
+     */
+    public void addSample(float x, float y, float value) {
+        int cell = cellOf(y - mMinY) * mCells + cellOf(x - mMinX);
+        float[] samples = mCellSamples[cell];
+        if (samples == null) {
+            samples = new float[MAX_CELL_SAMPLES * 3];
+            mCellSamples[cell] = samples;
+        }
+        int i;
+        if (mCellCounts[cell] < MAX_CELL_SAMPLES) {
+            i = mCellCounts[cell]++;
+            mNumSamples++;
+        } else {
+            i = mCellOldest[cell];
+            mCellOldest[cell] = (i + 1) % MAX_CELL_SAMPLES;
+        }
+        samples[i * 3] = x;
+        samples[i * 3 + 1] = y;
+        samples[i * 3 + 2] = value;
+        mCellVersions[cell] = mVersion + 1;
+        if (!mRefreshScheduled) {
+            mRefreshScheduled = true;
+            // Runs at once if the last version is old enough.
+            mMainHandler.postAtTime(mRefresh, mRefreshedAt + MIN_REFRESH_MILLIS);
+        }
+    }
+
+    /**
+     * Returns the number of samples kept, which stops growing once the cells are full.
+     */
+    public int numSamples() {
+        return mNumSamples;
+    }
+
+    public void clear() {
+        for (int cell = 0; cell < mCellCounts.length; cell++) {
+            mCellCounts[cell] = 0;
+            mCellOldest[cell] = 0;
+        }
+        mNumSamples = 0;
+        mGeneration++;
+        mCache.clear();
+    }
+
+    /**
+     * Stops the workers and drops the tiles. The layer draws nothing afterwards, and tiles
+     * that were being computed are recycled when they are done.
+     */
+    public void shutdown() {
+        mShutdown = true;
+        mWorkers.shutdownNow();
+        mMainHandler.removeCallbacks(mRefresh);
+        mCache.clear();
+    }
+
+    /**
+     * Publishes the samples added since the last version and redraws.
+     */
+    private void refresh() {
+        mRefreshScheduled = false;
+        mRefreshedAt = SystemClock.uptimeMillis();
+        mVersion++;
+        if (mOnTileReady != null) {
+            mOnTileReady.run();
+        }
+    }
+
+    /**
+     * Draws the tiles covering the viewport, which is shown in the content rectangle of the
+     * canvas, and requests the missing or outdated ones.
+     */
+    public void draw(Canvas canvas, RectF viewport, Rect contentRect) {
+        if (mShutdown || mNumSamples == 0 || viewport.width() <= 0) {
+            return;
+        }
+        float pixelsPerUnit = contentRect.width() / viewport.width();
+        int level = levelFor(pixelsPerUnit);
+        float tileSize = mSize / (1 << level);
+        int firstColumn = (int) Math.floor((viewport.left - mMinX) / tileSize);
+        int lastColumn = (int) Math.floor((viewport.right - mMinX) / tileSize);
+        int firstRow = (int) Math.floor((viewport.top - mMinY) / tileSize);
+        int lastRow = (int) Math.floor((viewport.bottom - mMinY) / tileSize);
+        int maxIndex = (1 << level) - 1;
+        for (int row = Math.max(0, firstRow); row <= Math.min(maxIndex, lastRow); row++) {
+            for (int column = Math.max(0, firstColumn); column <= Math.min(maxIndex, lastColumn);
+                    column++) {
+                long key = TileCache.keyOf(level, column, row);
+                TileCache.Tile tile = mCache.get(key);
+                if (tile == null || tile.stamp < newestVersion(level, column, row)) {
+                    request(key, level, column, row);
+                }
+                if (tile == null) {
+                    continue;
+                }
+                float left = mMinX + column * tileSize;
+                float bottom = mMinY + row * tileSize;
+                // Chart y grows upwards, so the top of the tile is its largest y.
+                mTileRect.set(
+                        contentRect.left + (left - viewport.left) * pixelsPerUnit,
+                        contentRect.bottom - (bottom + tileSize - viewport.top)
+                                * contentRect.height() / viewport.height(),
+                        contentRect.left + (left + tileSize - viewport.left) * pixelsPerUnit,
+                        contentRect.bottom - (bottom - viewport.top)
+                                * contentRect.height() / viewport.height());
+                canvas.drawBitmap(tile.bitmap, null, mTileRect, mTilePaint);
+            }
+        }
+    }
+
+    private int levelFor(float pixelsPerUnit) {
+        double level = Math.log(mSize * pixelsPerUnit / TILE_SCREEN_SIZE) / Math.log(2);
+        return Math.max(0, Math.min(MAX_LEVEL, (int) Math.round(level)));
+    }
+
+    /**
+     * Returns the column or row of the cell, clamped to the grid, at the given distance in
+     * chart units from the left or bottom edge of the chart area.
+     */
+    private int cellOf(float offset) {
+        return Math.max(0, Math.min(mCells - 1, (int) Math.floor(offset / mCellSize)));
+    }
+
+    /**
+     * Returns the newest published version of the cells within the radius of a tile.
+     */
+    private int newestVersion(int level, int column, int row) {
+        float tileSize = mSize / (1 << level);
+        int firstColumn = cellOf(column * tileSize - mRadius);
+        int lastColumn = cellOf((column + 1) * tileSize + mRadius);
+        int firstRow = cellOf(row * tileSize - mRadius);
+        int lastRow = cellOf((row + 1) * tileSize + mRadius);
+        int newest = 0;
+        for (int cellRow = firstRow; cellRow <= lastRow; cellRow++) {
+            for (int cellColumn = firstColumn; cellColumn <= lastColumn; cellColumn++) {
+                newest = Math.max(newest, mCellVersions[cellRow * mCells + cellColumn]);
+            }
+        }
+        // Changes waiting for the next version do not outdate a tile yet.
+        return Math.min(newest, mVersion);
+    }
+
+    private void request(long key, int level, int column, int row) {
+        if (!mPending.add(key)) {
+            return;
+        }
+        final float tileSize = mSize / (1 << level);
+        final Cells cells = copyCells(column * tileSize, row * tileSize, tileSize);
+        final int version = mVersion;
+        final int generation = mGeneration;
+        final float left = mMinX + column * tileSize;
+        final float top = mMinY + (row + 1) * tileSize;
+        mWorkers.execute(() -> {
+            Bitmap bitmap = mCache.obtain();
+            render(bitmap, cells, left, top, tileSize);
+            if (mShutdown) {
+                bitmap.recycle();
+                return;
+            }
+            mMainHandler.post(() -> {
+                mPending.remove(key);
+                if (mShutdown) {
+                    bitmap.recycle();
+                    return;
+                }
+                if (generation != mGeneration) {
+                    mCache.release(bitmap);
+                    return;
+                }
+                mCache.put(key, new TileCache.Tile(bitmap, version));
+                if (mOnTileReady != null) {
+                    mOnTileReady.run();
+                }
+            });
+        });
+    }
+
+    /**
+     * Copies the samples of the cells within the radius of the square with the given bottom
+     * left corner, in chart units from the corner of the chart area.
+     */
+    private Cells copyCells(float left, float bottom, float size) {
+        int firstColumn = cellOf(left - mRadius);
+        int lastColumn = cellOf(left + size + mRadius);
+        int firstRow = cellOf(bottom - mRadius);
+        int lastRow = cellOf(bottom + size + mRadius);
+        int columns = lastColumn - firstColumn + 1;
+        int rows = lastRow - firstRow + 1;
+        int[] starts = new int[columns * rows + 1];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int i = r * columns + c;
+                starts[i + 1] = starts[i]
+                        + mCellCounts[(firstRow + r) * mCells + firstColumn + c] * 3;
+            }
+        }
+        float[] values = new float[starts[starts.length - 1]];
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int i = r * columns + c;
+                int cell = (firstRow + r) * mCells + firstColumn + c;
+                if (starts[i + 1] > starts[i]) {
+                    System.arraycopy(mCellSamples[cell], 0, values, starts[i],
+                            starts[i + 1] - starts[i]);
+                }
+            }
+        }
+        return new Cells(firstColumn, firstRow, columns, rows, starts, values);
+    }
+
+    /**
+     * Interpolates the samples at the center of every pixel of the tile with the given top
+     * left corner. Each sample closer than the radius is weighted by its inverse squared
+     * distance less that of the radius, so its weight falls to zero at the radius.
+     */
+    private void render(Bitmap bitmap, Cells cells, float left, float top, float tileSize) {
+        int[] pixels = mPixels.get();
+        float step = tileSize / TILE_SIZE;
+        float scale = (PALETTE_SIZE - 1) / (mMaxValue - mMinValue);
+        float radius2 = mRadius * mRadius;
+        float[] values = cells.values;
+        for (int py = 0; py < TILE_SIZE; py++) {
+            float y = top - (py + 0.5f) * step;
+            int cellRow = cellOf(y - mMinY) - cells.firstRow;
+            int firstRow = Math.max(0, cellRow - 1);
+            int lastRow = Math.min(cells.rows - 1, cellRow + 1);
+            for (int px = 0; px < TILE_SIZE; px++) {
+                float x = left + (px + 0.5f) * step;
+                int cellColumn = cellOf(x - mMinX) - cells.firstColumn;
+                int firstColumn = Math.max(0, cellColumn - 1);
+                int lastColumn = Math.min(cells.columns - 1, cellColumn + 1);
+                double weights = 0;
+                double sum = 0;
+                search:
+                for (int r = firstRow; r <= lastRow; r++) {
+                    // The cells of a row are contiguous in values.
+                    int end = cells.starts[r * cells.columns + lastColumn + 1];
+                    for (int i = cells.starts[r * cells.columns + firstColumn]; i < end; i += 3) {
+                        float dx = values[i] - x;
+                        float dy = values[i + 1] - y;
+                        float d2 = dx * dx + dy * dy;
+                        if (d2 >= radius2) {
+                            continue;
+                        }
+                        if (d2 == 0) {
+                            weights = 1;
+                            sum = values[i + 2];
+                            break search;
+                        }
+                        double weight = 1 / d2 - 1 / radius2;
+                        weights += weight;
+                        sum += values[i + 2] * weight;
+                    }
+                }
+                if (weights == 0) {
+                    pixels[py * TILE_SIZE + px] = Color.TRANSPARENT;
+                    continue;
+                }
+                int index = (int) ((sum / weights - mMinValue) * scale);
+                pixels[py * TILE_SIZE + px] =
+                        mPalette[Math.max(0, Math.min(PALETTE_SIZE - 1, index))];
+            }
+        }
+        bitmap.setPixels(pixels, 0, TILE_SIZE, 0, 0, TILE_SIZE, TILE_SIZE);
+    }
+}
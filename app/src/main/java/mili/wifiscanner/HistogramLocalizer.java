@@ -0,0 +1,106 @@
+package mili.wifiscanner;
+
+/**
+ * A naive Bayes room localizer over the RSSI histograms of a {@link RadioMap}.
+ * <p>
+ * Every BSSID of the vocabulary contributes to the likelihood of a room, either with the
+ * probability of being missed or with the probability of its RSSI bin. The contribution of
+ * all missed BSSIDs is folded into a per-room base score once, and for each (BSSID, bin) the
+ * table holds the difference between "seen in this bin" and "missed". Scoring a scan is then
+ * one table row addition per visible AP, independent of the vocabulary size.
+ */
+public class HistogramLocalizer {
+    /**
+     * Additive (Laplace) smoothing applied to all counts.
+     */
+    private static final float ALPHA = 1f;
+
+    private final int mNumRooms;
+    // log prior + sum of log P(missed | room) over the whole vocabulary, per room
+    private final float[] mBaseScores;
+    // log P(seen in bin | room) - log P(missed | room), laid out as [bssid][bin][room]
+    private final float[] mDeltaScores;
+    // Scratch buffer for the per-room scores of the current scan
+    private final float[] mScores;
+    private float mLastConfidence;
+
+    private HistogramLocalizer(RadioMap radioMap) {
+        mNumRooms = radioMap.numRooms();
+        mBaseScores = new float[mNumRooms];
+        mDeltaScores = new float[radioMap.numBssids() * RadioMap.NUM_BINS * mNumRooms];
+        mScores = new float[mNumRooms];
+    }
+
+    /**
+     * Precomputes the log-likelihood tables from the current state of the radio map.
+     */
+    public static HistogramLocalizer fromRadioMap(RadioMap radioMap) {
+        HistogramLocalizer localizer = new HistogramLocalizer(radioMap);
+        int numRooms = radioMap.numRooms();
+        int numBssids = radioMap.numBssids();
+        int[] histogram = new int[RadioMap.NUM_BINS];
+
+        synchronized (radioMap) {
+            int totalScans = 0;
+            for (int room = 0; room < numRooms; room++) {
+                totalScans += radioMap.getRoomScans(room);
+            }
+            for (int room = 0; room < numRooms; room++) {
+                int scans = radioMap.getRoomScans(room);
+                double base = Math.log((scans + ALPHA) / (totalScans + numRooms * ALPHA));
+                for (int b = 0; b < numBssids; b++) {
+                    int count = radioMap.getCount(room, b);
+                    double pSeen = (count + ALPHA) / (scans + 2 * ALPHA);
+                    double logMissed = Math.log(1 - pSeen);
+                    base += logMissed;
+
+                    radioMap.getHistogram(room, b, histogram);
+                    for (int bin = 0; bin < RadioMap.NUM_BINS; bin++) {
+                        double pBin = (histogram[bin] + ALPHA)
+                                / (count + RadioMap.NUM_BINS * ALPHA);
+                        localizer.mDeltaScores[(b * RadioMap.NUM_BINS + bin) * numRooms + room] =
+                                (float) (Math.log(pSeen * pBin) - logMissed);
+                    }
+                }
+                localizer.mBaseScores[room] = (float) base;
+            }
+        }
+        return localizer;
+    }
+
+    /**
+     * Returns the index of the most likely room for the fingerprint, which must be over the
+     * vocabulary of the radio map. Not thread-safe; use one localizer per thread.
+     */
+    public int classify(Fingerprint fingerprint) {
+        System.arraycopy(mBaseScores, 0, mScores, 0, mNumRooms);
+        for (int i = 0; i < fingerprint.size(); i++) {
+            int row = (fingerprint.indexAt(i) * RadioMap.NUM_BINS
+                    + RadioMap.binOf(fingerprint.valueAt(i))) * mNumRooms;
+            for (int room = 0; room < mNumRooms; room++) {
+                mScores[room] += mDeltaScores[row + room];
+            }
+        }
+
+        int best = 0;
+        for (int room = 1; room < mNumRooms; room++) {
+            if (mScores[room] > mScores[best]) {
+                best = room;
+            }
+        }
+        // Posterior of the best room, computed relative to its score to avoid underflow.
+        double sum = 0;
+        for (int room = 0; room < mNumRooms; room++) {
+            sum += Math.exp(mScores[room] - mScores[best]);
+        }
+        mLastConfidence = (float) (1 / sum);
+        return best;
+    }
+
+    /**
+     * Returns the posterior probability of the room returned by the last {@link #classify}.
+     */
+    public float getLastConfidence() {
+        return mLastConfidence;
+    }
+}
@@ -0,0 +1,138 @@
+package mili.wifiscanner;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds with a fixed relative precision.
+ * <p>
+ * Values are bucketed log-linearly like an HDR histogram: every power of two is split into
+ * {@link #SUB_BUCKETS} equal buckets, so a percentile is off by at most 1 / SUB_BUCKETS of its
+ * value. Recording is one leading-zero count and one atomic increment, and any number of
+ * threads may record at the same time as others read.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Values up to 2^40 ns (about 18 minutes) get their own bucket; longer ones share the last.
+    private static final int MAX_EXPONENT = 40;
+    private static final int NUM_BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+    private final String mName;
+    private final AtomicLongArray mBuckets = new AtomicLongArray(NUM_BUCKETS);
+    private final LongAdder mCount = new LongAdder();
+    private final LongAdder mSum = new LongAdder();
+    private final AtomicLong mMax = new AtomicLong();
+
+    public LatencyHistogram(String name) {
+        mName = name;
+    }
+
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Records a duration.
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        mBuckets.incrementAndGet(bucketOf(nanos));
+        mCount.increment();
+        mSum.add(nanos);
+        long max = mMax.get();
+        while (nanos > max && !mMax.compareAndSet(max, nanos)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Records the time since startNanos, a value of {@link System#nanoTime}.
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return mCount.sum();
+    }
+
+    public long getMax() {
+        return mMax.get();
+    }
+
+    public double getMean() {
+        long count = mCount.sum();
+        return count == 0 ? 0 : (double) mSum.sum() / count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding the given percentile (0 to 100) of the
+     * recorded values, at most the maximum, or 0 if nothing was recorded.
+     */
+    public long getPercentile(double percentile) {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            total += mBuckets.get(i);
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            rank -= mBuckets.get(i);
+            if (rank <= 0) {
+                // The last bucket has no upper bound but the maximum.
+                return i == NUM_BUCKETS - 1 ? getMax() : Math.min(upperBoundOf(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < NUM_BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.reset();
+        mSum.reset();
+        mMax.set(0);
+    }
+
+    /**
+     * Appends count, mean, percentiles and maximum, in microseconds, as a JSON object.
+     */
+    public void appendJson(StringBuilder out) {
+        out.append("{\"count\":").append(getCount())
+                .append(",\"mean_us\":").append(Math.round(getMean() / 1000))
+                .append(",\"p50_us\":").append(getPercentile(50) / 1000)
+                .append(",\"p90_us\":").append(getPercentile(90) / 1000)
+                .append(",\"p99_us\":").append(getPercentile(99) / 1000)
+                .append(",\"max_us\":").append(getMax() / 1000)
+                .append('}');
+    }
+
+    private static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT) {
+            return NUM_BUCKETS - 1;
+        }
+        // The bits below the leading one select the bucket within the power of two.
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        int sub = bucket % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+}
@@ -6,14 +6,10 @@ import androidx.core.app.ActivityCompat;
 
 import android.Manifest;
 import android.app.AlertDialog;
-import android.content.BroadcastReceiver;
-import android.content.Context;
 import android.content.DialogInterface;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.res.AssetManager;
-import android.net.wifi.ScanResult;
-import android.net.wifi.WifiManager;
+import android.graphics.PointF;
+import android.graphics.RectF;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
@@ -33,19 +29,40 @@ import com.google.android.material.chip.Chip;
 import com.google.android.material.chip.ChipGroup;
 
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
 
 import weka.classifiers.Classifier;
 import weka.core.Attribute;
 import weka.core.DenseInstance;
 import weka.core.Instances;
+import weka.core.Utils;
 
 
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = "MainActivity";
     private static final int REQUEST_PERMISSION_CODE = 2;
+    private static final int SCAN_RING_CAPACITY = 64;
+    // Scans the writer may have outstanding before new ones are not logged anymore
+    private static final int SCAN_WRITER_DEPTH = 32;
+    // Scans the learner may have outstanding before the producer waits for it
+    private static final int SCAN_LEARNER_DEPTH = 8;
+    // How long saving the radio map waits for the learner to get through its scans
+    private static final long LEARNER_DRAIN_TIMEOUT = 10 * 1000;
+    // Readings per AP shown in the sparklines of the list
+    private static final int RSSI_HISTORY_LENGTH = 32;
+    // What the chart heatmap shows
+    private static final int HEATMAP_OFF = 0;
+    private static final int HEATMAP_RSSI = 1;
+    private static final int HEATMAP_CONFIDENCE = 2;
+    // Distance in chart units a heatmap sample reaches
+    private static final float HEATMAP_RADIUS = 1f;
 
     private TextView mScanTextView;
 
@@ -58,30 +75,54 @@ public class MainActivity extends AppCompatActivity {
     private static double mUserInput = 0;
     private static int mSettingID = -1;
 
-    private WifiManager mWifiManager;
-    private WifiScanReceiver mWifiScanReceiver;
-    public List<ScanResult> mAccessPoints;
+    private ScanSource mScanSource;
+    // The last scan, shared with every reader without copying
+    private final AtomicReference<ScanSnapshot> mLatestScan = new AtomicReference<>(
+            new ScanSnapshot(0, new long[0], new byte[0], null));
 
-    private Handler mHandler;
-    private Runnable mRunnable;
+    private AdaptiveScanScheduler mScanScheduler;
     private static int mInterval = 5000; // 1000 milliseconds == 1 second
     private static boolean mScanStarted = false;
 
-    private DataWriter mDataWriter;
+    private volatile DataWriter mDataWriter;
+    private final RssiHistoryStore mRssiHistory = new RssiHistoryStore(RSSI_HISTORY_LENGTH);
+    private ScanPipeline mScanPipeline;
+    private ScanRingBuffer.Subscriber mLearnerConsumer;
+    private UiUpdateCoalescer mUiCoalescer;
+    private static final LatencyHistogram CLASSIFY_TIME = Metrics.histogram(Metrics.CLASSIFY);
 
     public static String[] mSortedBssid;
     public static List<String> mRooms;
     private static final int mMinRSSI = -100;
     private static String mSystemPath;
+    private FingerprintVectorizer mVectorizer;
     private boolean mPredictMode = false;
     private Instances mDataUnpredicted;
-    private int[] mRSSI;
     private static Classifier mClassifier = null;
+    private OnlineLearner mOnlineLearner;
+    private RadioMap mRadioMap;
+    private volatile HistogramLocalizer mHistogramLocalizer;
+    private static boolean mUseHistogram = false;
+    // Number of scans combined into the fingerprint that is classified; 1 for single scans
+    private static int mWindowScans = 1;
+    private static final long WINDOW_MAX_AGE = 30 * 1000;
+    // Only used by the inference consumer
+    private FingerprintWindow mFingerprintWindow;
+    private ExecutorService mTrainExecutor;
 
 //    private MyCanvasView myCanvasView;
 
 
     private ChartFragment mChartFragment;
+    // Opens the floor plans off the main thread; the last one asked for wins.
+    private final ExecutorService mFloorPlanExecutor = Executors.newSingleThreadExecutor();
+    private FloorPlanLayer mFloorPlan;
+    private int mFloorPlanRequest;
+    // Heatmap of the chart and the AP it shows for HEATMAP_RSSI, main thread only
+    private HeatmapLayer mHeatmap;
+    private int mHeatmapMode = HEATMAP_OFF;
+    private long mHeatmapMac = -1;
+    private final PointF mHeatmapPosition = new PointF();
     private RecyclerFragment mRecyclerFragment;
     private boolean mRecyclerShown = true;
 
@@ -118,11 +159,15 @@ public class MainActivity extends AppCompatActivity {
             }
         });
 
+        mScanPipeline = new ScanPipeline(SCAN_RING_CAPACITY);
+        mScanPipeline.setObserver(this::onScanAvailable);
+
         mTypeToggle = findViewById(R.id.type_toggle);
         mTypeToggle.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
             Button checkedButton = findViewById(checkedId);
             checkedButton.playSoundEffect(SoundEffectConstants.CLICK);
             mDataType = checkedButton.getText();
+            mScanPipeline.setTraining(mDataType.equals(getString(R.string.train_text)));
             Log.d(TAG, "Collecting " + mDataType + " data...");
         });
         mTypeToggle.check(R.id.train_button);
@@ -132,9 +177,11 @@ public class MainActivity extends AppCompatActivity {
         mRoomToggle.setOnCheckedChangeListener((group, checkedId) -> {
             Chip checkedChip = findViewById(checkedId);
             mRoomID = checkedChip.getText();
-//                myCanvasView.setImage(checkedId-1);
+            mScanPipeline.setLabel(mRoomID.toString());
+            setFloorPlan(mRoomID);
             Log.d(TAG, "Collecting room " + mRoomID + " data...");
         });
+        setFloorPlan(mRoomID);
 
         ActivityCompat.requestPermissions(
                 MainActivity.this,
@@ -142,28 +189,15 @@ public class MainActivity extends AppCompatActivity {
                         Manifest.permission.WRITE_EXTERNAL_STORAGE},
                 REQUEST_PERMISSION_CODE);
 
-        mWifiManager = (WifiManager) getSystemService(Context.WIFI_SERVICE);
-        mWifiScanReceiver = new WifiScanReceiver();
-
-        mAccessPoints = new ArrayList<>();
-
-
-        mHandler = new Handler();
-        mRunnable = new Runnable() {
-            public void run() {
-                if (mScanStarted) {
-                    Log.d(TAG, "Scan once...");
-                    logToUi(mAccessPoints.size()
-                            + " APs discovered.\n" + getString(R.string.retrieving_access_points));
-                    mWifiManager.startScan();
-                    mHandler.postDelayed(this, mInterval);
-                } else {
-                    stopWifiScanner();
-                }
-            }
-        };
-
+        mScanSource = new WifiManagerScanSource(this);
+        mScanSource.setListener(mScanPipeline);
 
+        mScanScheduler = new AdaptiveScanScheduler(new Handler(), mScanSource, mInterval);
+        mScanScheduler.setCallback(accepted -> {
+            Log.d(TAG, "Scan once...");
+            logToUi(mLatestScan.get().size()
+                    + " APs discovered.\n" + getString(R.string.retrieving_access_points));
+        });
 
         mSortedBssid = getResources().getStringArray(R.array.sorted_bssid);
         mRooms = Arrays.asList(getResources().getStringArray(R.array.rooms));
@@ -173,38 +207,100 @@ public class MainActivity extends AppCompatActivity {
         Log.d(TAG, mRooms.toString());
 
 
+        mVectorizer = new FingerprintVectorizer(mSortedBssid);
+
+        // Instances(...) requires ArrayList<> instead of List<>...
+        ArrayList<Attribute> attributeList = new ArrayList<Attribute>(2) {
+            {
+                for (String bssid : mSortedBssid) {
+                    add(new Attribute(bssid));
+                }
+                Attribute attributeClass = new Attribute("@@class@@", mRooms);
+                add(attributeClass);
+            }
+        };
+        // unpredicted data sets (reference to sample structure for new instances)
+        mDataUnpredicted = new Instances("TestInstances",
+                attributeList, 1);
+        // last feature is target variable
+        mDataUnpredicted.setClassIndex(mDataUnpredicted.numAttributes() - 1);
+        Log.d(TAG, mDataUnpredicted.toSummaryString());
+
         AssetManager assetManager = getAssets();
         try {
             mClassifier = (Classifier) weka.core.SerializationHelper.read(assetManager.open("android_rnd.model"));
             Log.d(TAG, "Model loaded.");
             Toast.makeText(this, "Model loaded.", Toast.LENGTH_SHORT).show();
             mPredictMode = true;
-            // Instances(...) requires ArrayList<> instead of List<>...
-            ArrayList<Attribute> attributeList = new ArrayList<Attribute>(2) {
-                {
-                    for (String bssid : mSortedBssid) {
-                        add(new Attribute(bssid));
-                    }
-                    Attribute attributeClass = new Attribute("@@class@@", mRooms);
-                    add(attributeClass);
-                }
-            };
-            // unpredicted data sets (reference to sample structure for new instances)
-            mDataUnpredicted = new Instances("TestInstances",
-                    attributeList, 1);
-            // last feature is target variable
-            mDataUnpredicted.setClassIndex(mDataUnpredicted.numAttributes() - 1);
-            Log.d(TAG, mDataUnpredicted.toSummaryString());
-
         } catch (Exception e) {
             Log.d(TAG, "Model not found.");
             e.printStackTrace();
         }
 
+        // Learns from the labeled training scans as they arrive, so a changed site does not
+        // need an offline retrain before the test mode can use it.
+        try {
+            mOnlineLearner = new OnlineLearner(mDataUnpredicted);
+        } catch (Exception e) {
+            Log.d(TAG, "Online learner not available.");
+            e.printStackTrace();
+        }
+
+        mTrainExecutor = Executors.newSingleThreadExecutor();
+        mRadioMap = RadioMap.load(getRadioMapFile(), mSortedBssid, mRooms.size());
+        if (mRadioMap == null) {
+            mRadioMap = new RadioMap(mSortedBssid, mRooms.size());
+        } else {
+            mHistogramLocalizer = HistogramLocalizer.fromRadioMap(mRadioMap);
+        }
 
+        mUiCoalescer = new UiUpdateCoalescer(snapshot -> {
+            if (mRecyclerShown) {
+                mRecyclerFragment.update(snapshot);
+            }
+            logToUi(getString(R.string.stop_scan_info)
+                    + "\nCurrent scan delay: "
+                    + (mScanScheduler.getInterval() / 1000.0) + " s"
+            );
+        });
+        subscribeScanConsumers();
+    }
+
+    /**
+     * Returns the recent readings of every AP seen since the app started.
+     */
+    public RssiHistoryStore getRssiHistory() {
+        return mRssiHistory;
+    }
+
+    /**
+     * Returns the last scan, or an empty one before the first scan. May be called from any
+     * thread.
+     */
+    public ScanSnapshot getLatestScan() {
+        return mLatestScan.get();
     }
 
+    private File getRadioMapFile() {
+        return new File(mSystemPath + "radiomap.bin");
+    }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        mScanScheduler.stop();
+        mScanSource.stop();
+        mScanPipeline.close();
+        mUiCoalescer.cancel();
+        mTrainExecutor.shutdown();
+        if (mHeatmap != null) {
+            mHeatmap.shutdown();
+        }
+        mFloorPlanExecutor.shutdown();
+        if (mFloorPlan != null) {
+            mFloorPlan.shutdown();
+        }
+    }
 
     private void startWifiScanner() {
         if (mRoomToggle.getCheckedChipId() == ChipGroup.NO_ID) {
@@ -225,12 +321,44 @@ public class MainActivity extends AppCompatActivity {
                     pathWriter.writePath(mChartFragment.getPath());
                 }
             }
-            mHandler.post(mRunnable);
+            if (mScanSource instanceof WifiManagerScanSource
+                    && ((WifiManagerScanSource) mScanSource).isScanThrottled()) {
+                mScanScheduler.setThrottle(WifiManagerScanSource.THROTTLE_MAX_SCANS,
+                        WifiManagerScanSource.THROTTLE_WINDOW);
+            } else {
+                mScanScheduler.setThrottle(0, 0);
+            }
+            mScanPipeline.setLabel(mRoomID.toString());
+            mScanPipeline.setTraining(mDataType.equals(getString(R.string.train_text)));
+            mScanPipeline.start();
+            mScanScheduler.start();
         }
     }
 
     void stopWifiScanner() {
-        mHandler.removeCallbacks(null);
+        mScanScheduler.stop();
+        mScanPipeline.stop();
+        Log.d(TAG, mScanPipeline.toString());
+        Log.d(TAG, Metrics.toJson());
+        final RadioMap radioMap = mRadioMap;
+        final ScanRingBuffer.Subscriber learner = mLearnerConsumer;
+        mTrainExecutor.execute(() -> {
+            // The learner runs behind the scans; the map is saved once it has learned them all.
+            try {
+                if (!learner.awaitCaughtUp(LEARNER_DRAIN_TIMEOUT)) {
+                    Log.d(TAG, "Saving the radio map before the learner caught up: " + learner);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            try {
+                radioMap.save(getRadioMapFile());
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            mHistogramLocalizer = HistogramLocalizer.fromRadioMap(radioMap);
+        });
         logToUi(getString(R.string.start_scan_info));
         Log.d(TAG, "Scan stopped");
     }
@@ -245,10 +373,9 @@ public class MainActivity extends AppCompatActivity {
     protected void onResume() {
         Log.d(TAG, "onResume()");
         super.onResume();
-        registerReceiver(
-                mWifiScanReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        mScanSource.start();
         if (mRecyclerShown) {
-            mRecyclerFragment.update();
+            mRecyclerFragment.update(mLatestScan.get());
         }
     }
 
@@ -256,7 +383,7 @@ public class MainActivity extends AppCompatActivity {
     protected void onPause() {
         Log.d(TAG, "onPause()");
         super.onPause();
-        unregisterReceiver(mWifiScanReceiver);
+        mScanSource.stop();
     }
 
     @Override
@@ -310,62 +437,265 @@ public class MainActivity extends AppCompatActivity {
 
 
 
-    private class WifiScanReceiver extends BroadcastReceiver {
-        @Override
-        public void onReceive(Context context, Intent intent) {
-            if (mScanStarted) {
-                mAccessPoints = mWifiManager.getScanResults();
-                if (mRecyclerShown) {
-                    mRecyclerFragment.update();
+    /**
+     * Sees every scan the pipeline publishes, on the main thread where the source delivers.
+     */
+    private void onScanAvailable(ScanSnapshot snapshot) {
+        mLatestScan.set(snapshot);
+        if (mHeatmapMode == HEATMAP_RSSI && !snapshot.isRepeat()) {
+            for (int i = 0; i < snapshot.size(); i++) {
+                if (snapshot.macAt(i) == mHeatmapMac) {
+                    addHeatmapSample(snapshot.rssiAt(i));
+                    break;
                 }
-                logToUi(getString(R.string.stop_scan_info)
-                        + "\nCurrent scan delay: "
-                        + (mInterval / 1000.0) + " s"
-                );
-                mDataWriter.writeToFiles(mRoomID, mAccessPoints);
-
-                if (mDataType.equals(getString(R.string.test_text)) && mPredictMode) {
-                    mRSSI = new int[mSortedBssid.length];
-                    for (int i = 0; i<mRSSI.length; i++) {
-                        mRSSI[i] = mMinRSSI;
-                        for (int j = 0; j<mAccessPoints.size(); j++) {
-                            if (mSortedBssid[i].equals(mAccessPoints.get(j).BSSID)) {
-                                mRSSI[i] = mAccessPoints.get(j).level;
-                                break;
-                            }
-                        }
-                    }
-                    DenseInstance newInstance = new DenseInstance(mDataUnpredicted.numAttributes()) {
-                        {
-                            int i= 0;
-                            for (String bssid : mSortedBssid) {
-                                setValue(mDataUnpredicted.attribute(bssid), mRSSI[i]);
-                                i++;
-                            }
-                        }
-                    };
-                    // reference to dataset
-                    newInstance.setDataset(mDataUnpredicted);
-                    Log.d(TAG, newInstance.toStringNoWeight());
-                    try {
-                        Double result = mClassifier.classifyInstance(newInstance);
-                        // String className = mRooms.get(result.intValue());
-                        // String msg = "predicted: " + className + ", actual: room" + mRoomID;
-                        String msg = "predicted: " + mRooms.get(result.intValue());
-                        logToUi(msg);
-                    } catch (Exception e) {
-                        Log.d(TAG, "prediction failed");
-                        e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Subscribes the independent consumers of the scans: UI, persistence, inference and
+     * learning. Each runs on its own thread, so a slow disk or model only delays itself.
+     * Inference only cares about the latest scan, the writer rather loses the newest scans than
+     * leaves gaps in the log, and the UI keeps up with the recent scans. Only the learner blocks
+     * the producer when it falls behind, since every training scan it skipped would be missing
+     * from the radio map. Whether a scan trains is decided when it is published, so switching
+     * to test mode does not affect the scans still queued. The UI consumer records every scan
+     * for the sparklines and leaves it to the {@link UiUpdateCoalescer} to show only the latest
+     * once per frame, which hands that scan to the list itself. Repeated scans are only logged
+     * as a marker.
+     */
+    private void subscribeScanConsumers() {
+        mScanPipeline.subscribe("scan-ui", ScanRingBuffer.Policy.DROP_OLDEST,
+                SCAN_RING_CAPACITY, (snapshot, sequence) -> {
+            if (snapshot.isRepeat()) {
+                return;
+            }
+            mRssiHistory.record(snapshot);
+            mUiCoalescer.submit(snapshot);
+        });
+
+        mScanPipeline.subscribe("scan-writer", ScanRingBuffer.Policy.DROP_NEWEST,
+                SCAN_WRITER_DEPTH, (snapshot, sequence) -> {
+            if (snapshot.isRepeat()) {
+                mDataWriter.writeRepeat(snapshot.getLabel(), snapshot);
+            } else {
+                mDataWriter.writeToFiles(snapshot.getLabel(), snapshot);
+            }
+        });
+
+        mScanPipeline.subscribe("scan-inference", ScanRingBuffer.Policy.COALESCE,
+                1, (snapshot, sequence) -> {
+            if (snapshot.isRepeat()) {
+                return;
+            }
+            final Fingerprint fingerprint = mVectorizer.vectorize(snapshot);
+            final float confidence = mDataType.equals(getString(R.string.test_text))
+                    ? predict(aggregate(snapshot.getTimestamp(), fingerprint)) : Float.NaN;
+            runOnUiThread(() -> {
+                mScanScheduler.onScanResult(fingerprint, confidence);
+                if (mHeatmapMode == HEATMAP_CONFIDENCE && !Float.isNaN(confidence)) {
+                    addHeatmapSample(confidence);
+                }
+            });
+        });
+
+        mLearnerConsumer = mScanPipeline.subscribe("scan-learner", ScanRingBuffer.Policy.BLOCK,
+                SCAN_LEARNER_DEPTH, (snapshot, sequence) -> {
+            if (snapshot.isTraining() && !snapshot.isRepeat()) {
+                learn(snapshot.getLabel(), mVectorizer.vectorize(snapshot));
+            }
+        });
+    }
+
+    /**
+     * Shows the floor plan of the room behind the chart: {@code "minespark" + room + ".jpg"}
+     * from the assets, or the plan of the whole floor if the room has none. The plan is opened
+     * in the background and shown once it is ready, unless another room was chosen meanwhile.
+     */
+    private void setFloorPlan(CharSequence room) {
+        if (mFloorPlan != null) {
+            mFloorPlan.shutdown();
+            mFloorPlan = null;
+            mChartFragment.setImage(null);
+        }
+        final int request = ++mFloorPlanRequest;
+        final String name = "minespark" + room + ".jpg";
+        final AssetManager assets = getAssets();
+        final RectF bounds = new RectF(MyChartView.AXIS_X_MIN, MyChartView.AXIS_Y_MIN,
+                MyChartView.AXIS_X_MAX, MyChartView.AXIS_Y_MAX);
+        mFloorPlanExecutor.execute(() -> {
+            FloorPlanLayer floorPlan = null;
+            try {
+                floorPlan = FloorPlanLayer.fromAsset(assets,
+                        Arrays.asList(assets.list("")).contains(name) ? name : "minespark.jpg",
+                        bounds);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            final FloorPlanLayer opened = floorPlan;
+            runOnUiThread(() -> {
+                if (request != mFloorPlanRequest || isDestroyed()) {
+                    if (opened != null) {
+                        opened.shutdown();
                     }
+                    return;
                 }
+                mFloorPlan = opened;
+                mChartFragment.setImage(opened);
+            });
+        });
+    }
+
+    /**
+     * Shows a heatmap on the chart: off, the RSSI of the AP that is the strongest in the latest
+     * scan, or the prediction confidence. Samples are taken at the last point drawn on the chart
+     * whenever a new value arrives, so a surveyor marks where they stand and scans there.
+     */
+    private void setHeatmapMode(int mode) {
+        if (mHeatmap != null) {
+            mHeatmap.shutdown();
+            mHeatmap = null;
+        }
+        mHeatmapMode = mode;
+        if (mode == HEATMAP_RSSI) {
+            ScanSnapshot scan = mLatestScan.get();
+            int strongest = -1;
+            for (int i = 0; i < scan.size(); i++) {
+                if (scan.macAt(i) >= 0
+                        && (strongest < 0 || scan.rssiAt(i) > scan.rssiAt(strongest))) {
+                    strongest = i;
+                }
+            }
+            if (strongest < 0) {
+                logToUi(getString(R.string.heatmap_no_scan));
+                mHeatmapMode = HEATMAP_OFF;
+            } else {
+                mHeatmapMac = scan.macAt(strongest);
+                logToUi(getString(R.string.heatmap_rssi_info,
+                        ScanSnapshot.formatMac(mHeatmapMac)));
+                mHeatmap = newHeatmap(mMinRSSI, -30);
             }
+        } else if (mode == HEATMAP_CONFIDENCE) {
+            mHeatmap = newHeatmap(0, 1);
+        }
+        mChartFragment.setHeatmap(mHeatmap);
+    }
+
+    private static HeatmapLayer newHeatmap(float minValue, float maxValue) {
+        return new HeatmapLayer(MyChartView.AXIS_X_MIN, MyChartView.AXIS_Y_MIN,
+                Math.max(MyChartView.AXIS_X_MAX - MyChartView.AXIS_X_MIN,
+                        MyChartView.AXIS_Y_MAX - MyChartView.AXIS_Y_MIN),
+                minValue, maxValue, HEATMAP_RADIUS);
+    }
+
+    private void addHeatmapSample(float value) {
+        if (mHeatmap != null && mChartFragment.getPosition(mHeatmapPosition)) {
+            mHeatmap.addSample(mHeatmapPosition.x, mHeatmapPosition.y, value);
+        }
+    }
+
+    /**
+     * Returns the fingerprint to classify for a scan: the scan itself, or the median of the
+     * last {@link #mWindowScans} scans of at most {@link #WINDOW_MAX_AGE}. Called from the
+     * inference consumer only.
+     */
+    private Fingerprint aggregate(long timestamp, Fingerprint fingerprint) {
+        int windowScans = mWindowScans;
+        if (windowScans <= 1) {
+            mFingerprintWindow = null;
+            return fingerprint;
+        }
+        if (mFingerprintWindow == null || mFingerprintWindow.getCapacity() != windowScans) {
+            mFingerprintWindow = new FingerprintWindow(mVectorizer.size(), windowScans,
+                    WINDOW_MAX_AGE, FingerprintWindow.Aggregate.MEDIAN);
+        }
+        mFingerprintWindow.add(timestamp, fingerprint);
+        return mFingerprintWindow.aggregate(1);
+    }
+
+    /**
+     * Builds an instance with the structure of {@link #mDataUnpredicted} from the fingerprint.
+     * BSSIDs that were not seen in this scan get {@link #mMinRSSI}, which is what the bundled
+     * model was trained with, so the Weka models keep a dense vector. It is filled in one pass
+     * and the seen APs are scattered into it.
+     */
+    private DenseInstance buildInstance(Fingerprint fingerprint) {
+        double[] values = new double[mDataUnpredicted.numAttributes()];
+        fingerprint.toDense(values, mMinRSSI);
+        values[mDataUnpredicted.classIndex()] = Utils.missingValue();
+        DenseInstance newInstance = new DenseInstance(1.0, values);
+        // reference to dataset
+        newInstance.setDataset(mDataUnpredicted);
+        return newInstance;
+    }
+
+    /**
+     * Hands a labeled training scan to the online learner and the radio map.
+     */
+    private void learn(CharSequence roomId, Fingerprint fingerprint) {
+        String room = "room" + roomId;
+        int roomIndex = mRooms.indexOf(room);
+        if (roomIndex < 0) {
+            // "unknown" or a location the class attribute does not know about.
+            return;
+        }
+        if (mOnlineLearner != null) {
+            DenseInstance newInstance = buildInstance(fingerprint);
+            newInstance.setClassValue(room);
+            mOnlineLearner.learn(newInstance);
+        }
+        mRadioMap.update(roomIndex, fingerprint);
+    }
+
+    /**
+     * Predicts the room of the scan. With the histogram localizer chosen in the settings, the
+     * radio map collected so far is used. Otherwise, once the online learner has seen training
+     * scans its model is used, and the bundled model before that.
+     *
+     * @return The probability of the predicted room, or NaN if no prediction was made.
+     */
+    private float predict(Fingerprint fingerprint) {
+        HistogramLocalizer localizer = mHistogramLocalizer;
+        if (mUseHistogram && localizer != null) {
+            long start = System.nanoTime();
+            Tracer.begin(Metrics.CLASSIFY);
+            int room = localizer.classify(fingerprint);
+            Tracer.end();
+            CLASSIFY_TIME.recordSince(start);
+            logToUi("predicted: " + mRooms.get(room));
+            return localizer.getLastConfidence();
+        }
+        boolean useOnline = mOnlineLearner != null && mOnlineLearner.numTrained() > 0;
+        if (!useOnline && !mPredictMode) {
+            return Float.NaN;
+        }
+        long start = System.nanoTime();
+        Tracer.begin(Metrics.CLASSIFY);
+        DenseInstance newInstance = buildInstance(fingerprint);
+        try {
+            double[] distribution = useOnline
+                    ? mOnlineLearner.distributionForInstance(newInstance)
+                    : mClassifier.distributionForInstance(newInstance);
+            CLASSIFY_TIME.recordSince(start);
+            int result = Utils.maxIndex(distribution);
+            // String className = mRooms.get(result);
+            // String msg = "predicted: " + className + ", actual: room" + mRoomID;
+            String msg = "predicted: " + mRooms.get(result);
+            logToUi(msg);
+            return (float) distribution[result];
+        } catch (Exception e) {
+            Log.d(TAG, "prediction failed");
+            e.printStackTrace();
+            return Float.NaN;
+        } finally {
+            Tracer.end();
         }
     }
 
     private void logToUi(final String message) {
         if (!message.isEmpty()) {
             Log.d(TAG, message);
-            mScanTextView.setText(message);
+            runOnUiThread(() -> mScanTextView.setText(message));
         }
     }
 
@@ -431,8 +761,28 @@ public class MainActivity extends AppCompatActivity {
                                     createRoomChips();
                                 } else if (mSettingID == 1) {
                                     mInterval = (int) (mUserInput * 1000);
-                                    mHandler.removeCallbacks(null);
+                                    mScanScheduler.setBaseInterval(mInterval);
                                     Log.d(TAG, "User Input Value: " + mInterval);
+                                } else if (mSettingID == 2) {
+                                    mUseHistogram = (int) mUserInput == 1;
+                                } else if (mSettingID == 3) {
+                                    mWindowScans = Math.max(1, (int) mUserInput);
+                                } else if (mSettingID == 4) {
+                                    ScanAdapter.Order[] orders = ScanAdapter.Order.values();
+                                    int order = Math.max(0, Math.min(orders.length - 1,
+                                            (int) mUserInput));
+                                    mRecyclerFragment.setOrder(orders[order]);
+                                } else if (mSettingID == 5) {
+                                    // The input only takes positive numbers.
+                                    int minRssi = -(int) Math.abs(mUserInput);
+                                    mRecyclerFragment.setMinRssi(
+                                            minRssi == 0 ? Integer.MIN_VALUE : minRssi);
+                                } else if (mSettingID == 6) {
+                                    setHeatmapMode(Math.max(HEATMAP_OFF,
+                                            Math.min(HEATMAP_CONFIDENCE, (int) mUserInput)));
+                                } else if (mSettingID == 7) {
+                                    mUiCoalescer.setMinInterval(
+                                            (long) (Math.abs(mUserInput) * 1000));
                                 }
                             }
                         })
@@ -0,0 +1,83 @@
+package mili.wifiscanner;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The process-wide registry of counters and latency histograms of the scan pipeline.
+ * <p>
+ * Instrumented code looks its metrics up once, keeps them in static fields and only touches
+ * lock-free counters afterwards, so measuring costs far less than logging every event. A
+ * snapshot of all metrics is available as JSON through {@link #toJson}.
+ */
+public final class Metrics {
+    public static final String SCAN_REQUEST_TO_RESULT = "scan.request_to_result";
+    public static final String SCAN_REPEATS = "scan.repeats";
+    public static final String VECTORIZE = "inference.vectorize";
+    public static final String CLASSIFY = "inference.classify";
+    public static final String WRITE = "writer.write";
+    public static final String ADAPTER_SORT_DIFF = "ui.adapter_sort_diff";
+    public static final String ADAPTER_DISPATCH = "ui.adapter_dispatch";
+    public static final String CHART_FRAME = "ui.chart_frame";
+
+    private static final Map<String, LongAdder> sCounters = new ConcurrentHashMap<>();
+    private static final Map<String, LatencyHistogram> sHistograms = new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * Returns the counter of the given name, creating it on first use.
+     */
+    public static LongAdder counter(String name) {
+        return sCounters.computeIfAbsent(name, key -> new LongAdder());
+    }
+
+    /**
+     * Returns the histogram of the given name, creating it on first use.
+     */
+    public static LatencyHistogram histogram(String name) {
+        return sHistograms.computeIfAbsent(name, LatencyHistogram::new);
+    }
+
+    /**
+     * Resets every metric to zero. The metrics stay registered.
+     */
+    public static void reset() {
+        for (LongAdder counter : sCounters.values()) {
+            counter.reset();
+        }
+        for (LatencyHistogram histogram : sHistograms.values()) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * Returns all metrics as a JSON object with a "counters" and a "histograms" member, each
+     * sorted by name. Metrics updated concurrently may be caught mid-update.
+     */
+    public static String toJson() {
+        StringBuilder out = new StringBuilder("{\"counters\":{");
+        boolean first = true;
+        for (Map.Entry<String, LongAdder> entry : new TreeMap<>(sCounters).entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(entry.getKey()).append("\":").append(entry.getValue().sum());
+        }
+        out.append("},\"histograms\":{");
+        first = true;
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<>(sHistograms).entrySet()) {
+            if (!first) {
+                out.append(',');
+            }
+            first = false;
+            out.append('"').append(entry.getKey()).append("\":");
+            entry.getValue().appendJson(out);
+        }
+        return out.append("}}").toString();
+    }
+}
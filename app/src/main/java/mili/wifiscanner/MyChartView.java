@@ -18,7 +18,9 @@ package mili.wifiscanner;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path;
 import android.graphics.Point;
@@ -27,6 +29,7 @@ import android.graphics.Rect;
 import android.graphics.RectF;
 import android.os.Parcel;
 import android.os.Parcelable;
+import android.os.SystemClock;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.GestureDetector;
@@ -39,13 +42,8 @@ import android.widget.OverScroller;
 import androidx.core.view.GestureDetectorCompat;
 import androidx.core.view.ViewCompat;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
-import static java.lang.Math.PI;
-import static java.lang.Math.atan2;
-import static java.lang.Math.cos;
-import static java.lang.Math.sin;
 
 /**
  * A view representing a simple yet interactive line chart.
@@ -53,6 +51,7 @@ import static java.lang.Math.sin;
  */
 public class MyChartView extends View {
     private static final String TAG = "MyChartView";
+    private static final LatencyHistogram FRAME_TIME = Metrics.histogram(Metrics.CHART_FRAME);
 
     /**
      * Initial fling velocity for pan operations, in screen widths (or heights) per second.
@@ -72,11 +71,37 @@ public class MyChartView extends View {
      */
     private static final float ZOOM_AMOUNT = 0.25f;
 
+    /**
+     * Length of the arrowhead legs, in pixels, and the angle between them, in degrees.
+     */
+    private static final float ARROW_RADIUS = 100;
+    private static final float ARROW_ANGLE = 15;
+    private static final float ARROW_COS = (float) Math.cos(Math.toRadians(ARROW_ANGLE / 2));
+    private static final float ARROW_SIN = (float) Math.sin(Math.toRadians(ARROW_ANGLE / 2));
+
+    /**
+     * Number of columns and rows of the grid indexing the series segments for culling.
+     */
+    private static final int SEGMENT_GRID_SIZE = 64;
+
+    /**
+     * Time the viewport has to stay unchanged before the static layer is redrawn for it, in
+     * milliseconds.
+     */
+    private static final long STATIC_LAYER_SETTLE_MS = 150;
+
     // Viewport extremes. See mCurrentViewport for a discussion of the viewport.
-    private static final float AXIS_X_MIN = -3f;
-    private static final float AXIS_X_MAX = 3f;
-    private static final float AXIS_Y_MIN = -4f;
-    private static final float AXIS_Y_MAX = 4f;
+    static final float AXIS_X_MIN = -3f;
+    static final float AXIS_X_MAX = 3f;
+    static final float AXIS_Y_MIN = -4f;
+    static final float AXIS_Y_MAX = 4f;
+
+    /**
+     * Number of decimated levels of the series, and the bucket size of the coarsest one in
+     * chart units. Each next level halves the bucket size.
+     */
+    private static final int SERIES_LOD_LEVELS = 4;
+    private static final float SERIES_LOD_COARSEST = (AXIS_X_MAX - AXIS_X_MIN) / 256;
 
     /**
      * The current viewport. This rectangle represents the currently visible chart domain
@@ -146,9 +171,34 @@ public class MyChartView extends View {
     private float[] mAxisYPositionsBuffer = new float[]{};
     private float[] mAxisXLinesBuffer = new float[]{};
     private float[] mAxisYLinesBuffer = new float[]{};
-    private float[] mSeriesLinesBuffer = null;
-    private List<Float> mSeriesData = new ArrayList<>();
-    private final char[] mLabelBuffer = new char[100];
+    private float[] mSeriesLinesBuffer = new float[]{};
+    private final Path mArrowHeadsPath = new Path();
+
+    // Offscreen copy of the axes, the series and the chart container, drawn for
+    // mStaticLayerViewport and holding the first mStaticLayerSegments segments of the series
+    private Bitmap mStaticLayer;
+    private Canvas mStaticLayerCanvas;
+    private final RectF mStaticLayerViewport = new RectF();
+    private int mStaticLayerSegments;
+    // Viewport of the last frame and the time it was first drawn
+    private final RectF mLastFrameViewport = new RectF();
+    private long mViewportChangedAt;
+    private boolean mSettleCheckPending;
+    private FloorPlanLayer mFloorPlan;
+    private HeatmapLayer mHeatmap;
+    private final Runnable mSettleCheck = new Runnable() {
+        @Override
+        public void run() {
+            mSettleCheckPending = false;
+            invalidate();
+        }
+    };
+    private final FloatSeries mSeriesData = new FloatSeries();
+    private final FloatSeries mSeriesDataView = mSeriesData.asReadOnly();
+    private final SegmentGrid mSegmentGrid = new SegmentGrid(AXIS_X_MIN, AXIS_Y_MIN,
+            AXIS_X_MAX, AXIS_Y_MAX, SEGMENT_GRID_SIZE, SEGMENT_GRID_SIZE);
+    private final SegmentPyramid mSeriesLod = new SegmentPyramid(AXIS_X_MIN, AXIS_Y_MIN,
+            AXIS_X_MAX, AXIS_Y_MAX, SERIES_LOD_COARSEST, SERIES_LOD_LEVELS, SEGMENT_GRID_SIZE);
     private Point mSurfaceSizeBuffer = new Point();
 
     private boolean mDrawMode;
@@ -269,18 +319,95 @@ public class MyChartView extends View {
 
     @Override
     protected void onDraw(Canvas canvas) {
+        long start = System.nanoTime();
+        Tracer.begin("chart.draw");
         super.onDraw(canvas);
 
+        long now = SystemClock.uptimeMillis();
+        if (!mLastFrameViewport.equals(mCurrentViewport)) {
+            mLastFrameViewport.set(mCurrentViewport);
+            mViewportChangedAt = now;
+        }
+        boolean layerFits = mStaticLayer != null && mStaticLayer.getWidth() == getWidth()
+                && mStaticLayer.getHeight() == getHeight();
+        boolean layerCurrent = layerFits && mStaticLayerViewport.equals(mCurrentViewport);
+        if (!layerFits || !layerCurrent && now - mViewportChangedAt >= STATIC_LAYER_SETTLE_MS) {
+            Tracer.begin("chart.layer");
+            drawStaticLayer();
+            Tracer.end();
+            layerCurrent = true;
+        }
+
+        if (mFloorPlan != null) {
+            Tracer.begin("chart.floor_plan");
+            int clipRestoreCount = canvas.save();
+            canvas.clipRect(mContentRect);
+            mFloorPlan.draw(canvas, mCurrentViewport, mContentRect);
+            canvas.restoreToCount(clipRestoreCount);
+            Tracer.end();
+        }
+
+        if (mHeatmap != null) {
+            Tracer.begin("chart.heatmap");
+            int clipRestoreCount = canvas.save();
+            canvas.clipRect(mContentRect);
+            mHeatmap.draw(canvas, mCurrentViewport, mContentRect);
+            canvas.restoreToCount(clipRestoreCount);
+            Tracer.end();
+        }
+
+        if (layerCurrent) {
+            Tracer.begin("chart.series");
+            appendToStaticLayer();
+            Tracer.end();
+            canvas.drawBitmap(mStaticLayer, 0, 0, null);
+        } else {
+            // While panning or zooming, draw directly and check again once the viewport
+            // may have settled.
+            drawStatic(canvas);
+            if (!mSettleCheckPending) {
+                mSettleCheckPending = true;
+                postDelayed(mSettleCheck, mViewportChangedAt + STATIC_LAYER_SETTLE_MS - now);
+            }
+        }
+
+        int clipRestoreCount = canvas.save();
+        canvas.clipRect(mContentRect);
+        drawEdgeEffectsUnclipped(canvas);
+        canvas.restoreToCount(clipRestoreCount);
+        Tracer.end();
+        FRAME_TIME.recordSince(start);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        removeCallbacks(mSettleCheck);
+        mSettleCheckPending = false;
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+            mStaticLayerCanvas = null;
+        }
+    }
+
+    /**
+     * Draws the content that only changes with the viewport or with new segments: axes and
+     * labels, the data series and the chart container.
+     */
+    private void drawStatic(Canvas canvas) {
         // Draws axes and text labels
+        Tracer.begin("chart.axes");
         drawAxes(canvas);
+        Tracer.end();
 
         // Clips the next few drawing operations to the content area
         int clipRestoreCount = canvas.save();
         canvas.clipRect(mContentRect);
 
-        drawEdgeEffectsUnclipped(canvas);
-
+        Tracer.begin("chart.series");
         drawDataSeriesUnclipped(canvas);
+        Tracer.end();
 
         // Removes clipping rectangle
         canvas.restoreToCount(clipRestoreCount);
@@ -288,46 +415,72 @@ public class MyChartView extends View {
         // Draws chart container
         canvas.drawRect(mContentRect, mAxisPaint);
     }
+
     /**
-     * Draw an arrow
-     * change internal radius and angle to change appearance
-     * - angle : angle in degrees of the arrows legs
-     * - radius : length of the arrows legs
-     * @author Steven Roelants 2017
-     *
-     * @param paint
-     * @param canvas
-     * @param from_x
-     * @param from_y
-     * @param to_x
-     * @param to_y
+     * Redraws the static layer for the current viewport, allocating it first if the view has
+     * no layer of its size.
      */
-    private void drawArrow(Paint paint, Canvas canvas, float from_x, float from_y, float to_x, float to_y)
-    {
-        float angle,anglerad, radius, lineangle;
-
-        //values to change for other appearance *CHANGE THESE FOR OTHER SIZE ARROWHEADS*
-        radius=100;
-        angle=15;
-
-        //some angle calculations
-        anglerad= (float) (PI*angle/180.0f);
-        lineangle= (float) (atan2(to_y-from_y,to_x-from_x));
-
-        //tha line
-        canvas.drawLine(from_x,from_y,to_x,to_y,paint);
-
-        //tha triangle
-        Path path = new Path();
-        path.setFillType(Path.FillType.EVEN_ODD);
-        path.moveTo(to_x, to_y);
-        path.lineTo((float)(to_x-radius*cos(lineangle - (anglerad / 2.0))),
-                (float)(to_y-radius*sin(lineangle - (anglerad / 2.0))));
-        path.lineTo((float)(to_x-radius*cos(lineangle + (anglerad / 2.0))),
-                (float)(to_y-radius*sin(lineangle + (anglerad / 2.0))));
-        path.close();
+    private void drawStaticLayer() {
+        if (mStaticLayer == null || mStaticLayer.getWidth() != getWidth()
+                || mStaticLayer.getHeight() != getHeight()) {
+            if (mStaticLayer != null) {
+                mStaticLayer.recycle();
+            }
+            mStaticLayer = Bitmap.createBitmap(Math.max(1, getWidth()), Math.max(1, getHeight()),
+                    Bitmap.Config.ARGB_8888);
+            mStaticLayerCanvas = new Canvas(mStaticLayer);
+        }
+        mStaticLayer.eraseColor(Color.TRANSPARENT);
+        drawStatic(mStaticLayerCanvas);
+        mStaticLayerViewport.set(mCurrentViewport);
+        mStaticLayerSegments = mSeriesData.size() / 4;
+    }
 
-        canvas.drawPath(path, paint);
+    /**
+     * Draws the segments appended since the static layer was drawn onto it.
+     */
+    private void appendToStaticLayer() {
+        int numSegments = mSeriesData.size() / 4;
+        if (mStaticLayerSegments == numSegments) {
+            return;
+        }
+        ensureSeriesLinesBuffer(numSegments - mStaticLayerSegments);
+        mArrowHeadsPath.rewind();
+        int n = 0;
+        for (int segment = mStaticLayerSegments; segment < numSegments; segment++) {
+            n = appendArrow(mSeriesData, segment, n);
+        }
+        int clipRestoreCount = mStaticLayerCanvas.save();
+        mStaticLayerCanvas.clipRect(mContentRect);
+        mStaticLayerCanvas.drawLines(mSeriesLinesBuffer, 0, n, mDataPaint);
+        mStaticLayerCanvas.drawPath(mArrowHeadsPath, mDataPaint);
+        mStaticLayerCanvas.restoreToCount(clipRestoreCount);
+        // The container border was covered where new arrows cross it.
+        mStaticLayerCanvas.drawRect(mContentRect, mAxisPaint);
+        mStaticLayerSegments = numSegments;
+    }
+    /**
+     * Adds the head of an arrow from (fromX, fromY) to (toX, toY) to the given path. The legs
+     * are {@link #ARROW_RADIUS} long and {@link #ARROW_ANGLE} apart; their directions are the
+     * arrow direction rotated by the cached sine and cosine of half that angle, so no
+     * trigonometric function is evaluated per arrow. Based on drawArrow by Steven Roelants 2017.
+     */
+    private static void addArrowHead(Path path, float fromX, float fromY, float toX, float toY) {
+        float dx = toX - fromX;
+        float dy = toY - fromY;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        float ux = 1;
+        float uy = 0;
+        if (length > 0) {
+            ux = dx / length;
+            uy = dy / length;
+        }
+        path.moveTo(toX, toY);
+        path.lineTo(toX - ARROW_RADIUS * (ux * ARROW_COS + uy * ARROW_SIN),
+                toY - ARROW_RADIUS * (uy * ARROW_COS - ux * ARROW_SIN));
+        path.lineTo(toX - ARROW_RADIUS * (ux * ARROW_COS - uy * ARROW_SIN),
+                toY - ARROW_RADIUS * (uy * ARROW_COS + ux * ARROW_SIN));
+        path.close();
     }
 
 
@@ -389,16 +542,12 @@ public class MyChartView extends View {
         }
         canvas.drawLines(mAxisYLinesBuffer, 0, mYStopsBuffer.numStops * 4, mGridPaint);
 
-        // Draws X labels
-        int labelOffset;
-        int labelLength;
+        // Draws X labels, formatted when the stops were computed
         mLabelTextPaint.setTextAlign(Paint.Align.CENTER);
         for (i = 0; i < mXStopsBuffer.numStops; i++) {
-            // Do not use String.format in high-performance code such as onDraw code.
-            labelLength = formatFloat(mLabelBuffer, mXStopsBuffer.stops[i], mXStopsBuffer.decimals);
-            labelOffset = mLabelBuffer.length - labelLength;
             canvas.drawText(
-                    mLabelBuffer, labelOffset, labelLength,
+                    mXStopsBuffer.labels, mXStopsBuffer.labelOffsets[i],
+                    mXStopsBuffer.labelLengths[i],
                     mAxisXPositionsBuffer[i],
                     mContentRect.bottom + mLabelHeight + mLabelSeparation,
                     mLabelTextPaint);
@@ -407,11 +556,9 @@ public class MyChartView extends View {
         // Draws Y labels
         mLabelTextPaint.setTextAlign(Paint.Align.RIGHT);
         for (i = 0; i < mYStopsBuffer.numStops; i++) {
-            // Do not use String.format in high-performance code such as onDraw code.
-            labelLength = formatFloat(mLabelBuffer, mYStopsBuffer.stops[i], mYStopsBuffer.decimals);
-            labelOffset = mLabelBuffer.length - labelLength;
             canvas.drawText(
-                    mLabelBuffer, labelOffset, labelLength,
+                    mYStopsBuffer.labels, mYStopsBuffer.labelOffsets[i],
+                    mYStopsBuffer.labelLengths[i],
                     mContentRect.left - mLabelSeparation,
                     mAxisYPositionsBuffer[i] + mLabelHeight / 2,
                     mLabelTextPaint);
@@ -478,27 +625,44 @@ public class MyChartView extends View {
      * @param stop The maximum extreme (e.g. the right edge) for the axis.
      * @param steps The ideal number of stops to create. This should be based on available screen
      *              space; the more space there is, the more stops should be shown.
-     * @param outStops The destination {@link AxisStops} object to populate.
+     * @param outStops The destination {@link AxisStops} object to populate. It also remembers
+     *                 the interval and stops it holds, so that they and their labels are only
+     *                 recomputed when they change, which a pan only does when a stop scrolls
+     *                 out or in.
      */
     private static void computeAxisStops(float start, float stop, int steps, AxisStops outStops) {
         double range = stop - start;
         if (steps == 0 || range <= 0) {
-            outStops.stops = new float[]{};
             outStops.numStops = 0;
+            outStops.steps = -1;
+            outStops.interval = Double.NaN;
             return;
         }
 
-        double rawInterval = range / steps;
-        double interval = roundToOneSignificantFigure(rawInterval);
-        double intervalMagnitude = Math.pow(10, (int) Math.log10(interval));
-        int intervalSigDigit = (int) (interval / intervalMagnitude);
-        if (intervalSigDigit > 5) {
-            // Use one order of magnitude higher, to avoid intervals like 0.9 or 90
-            interval = Math.floor(10 * intervalMagnitude);
+        double interval;
+        if (range == outStops.range && steps == outStops.steps) {
+            interval = outStops.interval;
+        } else {
+            double rawInterval = range / steps;
+            interval = roundToOneSignificantFigure(rawInterval);
+            double intervalMagnitude = Math.pow(10, (int) Math.log10(interval));
+            int intervalSigDigit = (int) (interval / intervalMagnitude);
+            if (intervalSigDigit > 5) {
+                // Use one order of magnitude higher, to avoid intervals like 0.9 or 90
+                interval = Math.floor(10 * intervalMagnitude);
+            }
+            outStops.range = range;
+            outStops.steps = steps;
         }
 
         double first = Math.ceil(start / interval) * interval;
         double last = Math.nextUp(Math.floor(stop / interval) * interval);
+        if (interval == outStops.interval && first == outStops.first && last == outStops.last) {
+            return;
+        }
+        outStops.interval = interval;
+        outStops.first = first;
+        outStops.last = last;
 
         double f;
         int i;
@@ -523,6 +687,31 @@ public class MyChartView extends View {
         } else {
             outStops.decimals = 0;
         }
+        formatLabels(outStops);
+    }
+
+    /**
+     * Formats the labels of all stops, one after the other, into the label buffer of the stops.
+     */
+    private static void formatLabels(AxisStops stops) {
+        if (stops.labelOffsets.length < stops.numStops) {
+            stops.labelOffsets = new int[stops.numStops];
+            stops.labelLengths = new int[stops.numStops];
+        }
+        char[] label = stops.labelBuffer;
+        int offset = 0;
+        for (int i = 0; i < stops.numStops; i++) {
+            // Do not use String.format in high-performance code such as onDraw code.
+            int length = formatFloat(label, stops.stops[i], stops.decimals);
+            if (stops.labels.length < offset + length) {
+                stops.labels = Arrays.copyOf(stops.labels,
+                        Math.max(offset + length, stops.labels.length * 2));
+            }
+            System.arraycopy(label, label.length - length, stops.labels, offset, length);
+            stops.labelOffsets[i] = offset;
+            stops.labelLengths[i] = length;
+            offset += length;
+        }
     }
 
     /**
@@ -563,35 +752,66 @@ public class MyChartView extends View {
      * Draws the currently visible portion of the data series to the canvas.
      * This method does not clip its drawing, so users should call {@link Canvas#clipRect
      * before calling this method.
+     * <p>
+     * Every pair of points is an arrow. When zoomed out, the arrows are taken from the
+     * coarsest level of {@link #mSeriesLod} whose tolerance is below one pixel, so arrows that
+     * would land on the same pixels are drawn once. Only the arrows that the culling grid finds
+     * near the current viewport are visited, so the cost depends on what is visible rather than
+     * on the length of the path. Their shafts go to the canvas in one drawLines call and all their
+     * heads in one path. The line buffer only grows and the path is rewound, so drawing does
+     * not allocate once the buffer has its size.
      */
     private void drawDataSeriesUnclipped(Canvas canvas) {
-        Log.d(TAG, mSeriesData.toString());
-        mSeriesLinesBuffer = new float[mSeriesData.size()];
-        for (int i=0; i<mSeriesData.size(); i+=2) {
-            mSeriesLinesBuffer[i] = getDrawX(mSeriesData.get(i));
-            mSeriesLinesBuffer[i+1] = getDrawY(mSeriesData.get(i+1));
+        float pixelSize = Math.min(mCurrentViewport.width() / mContentRect.width(),
+                mCurrentViewport.height() / mContentRect.height());
+        int level = mSeriesLod.levelFor(pixelSize);
+        FloatSeries series = level < 0 ? mSeriesData : mSeriesLod.getSegments(level);
+        SegmentGrid grid = level < 0 ? mSegmentGrid : mSeriesLod.getGrid(level);
+
+        // The head reaches up to ARROW_RADIUS pixels beyond the end of the shaft.
+        float marginX = ARROW_RADIUS * mCurrentViewport.width() / mContentRect.width();
+        float marginY = ARROW_RADIUS * mCurrentViewport.height() / mContentRect.height();
+        int numVisible = grid.query(
+                mCurrentViewport.left - marginX, mCurrentViewport.top - marginY,
+                mCurrentViewport.right + marginX, mCurrentViewport.bottom + marginY);
+        int[] visible = grid.getResults();
+        ensureSeriesLinesBuffer(numVisible);
+        mArrowHeadsPath.rewind();
+        int n = 0;
+        for (int k = 0; k < numVisible; k++) {
+            n = appendArrow(series, visible[k], n);
         }
-//        mSeriesLinesBuffer[0] = mContentRect.left;
-//        mSeriesLinesBuffer[1] = getDrawY(fun(mCurrentViewport.left));
-//        mSeriesLinesBuffer[2] = mSeriesLinesBuffer[0];
-//        mSeriesLinesBuffer[3] = mSeriesLinesBuffer[1];
-//        float x;
-//        for (int i = 1; i <= DRAW_STEPS; i++) {
-//            mSeriesLinesBuffer[i * 4 + 0] = mSeriesLinesBuffer[(i - 1) * 4 + 2];
-//            mSeriesLinesBuffer[i * 4 + 1] = mSeriesLinesBuffer[(i - 1) * 4 + 3];
-//
-//            x = (mCurrentViewport.left + (mCurrentViewport.width() / DRAW_STEPS * i));
-//            mSeriesLinesBuffer[i * 4 + 2] = getDrawX(x);
-//            mSeriesLinesBuffer[i * 4 + 3] = getDrawY(fun(x));
-//        }
-//        canvas.drawLines(mSeriesLinesBuffer, mDataPaint);
-
-        for (int i=0; i<mSeriesData.size(); i+=4) {
-            drawArrow(mDataPaint,canvas, mSeriesLinesBuffer[i], mSeriesLinesBuffer[i+1],mSeriesLinesBuffer[i+2],mSeriesLinesBuffer[i+3]);
+        canvas.drawLines(mSeriesLinesBuffer, 0, n, mDataPaint);
+        canvas.drawPath(mArrowHeadsPath, mDataPaint);
+    }
 
+    private void ensureSeriesLinesBuffer(int numSegments) {
+        if (mSeriesLinesBuffer.length < numSegments * 4) {
+            mSeriesLinesBuffer = new float[Math.max(numSegments * 4,
+                    mSeriesLinesBuffer.length * 2)];
         }
     }
 
+    /**
+     * Transforms a segment of the series to draw coordinates, stores its shaft in the line
+     * buffer at n and adds its head to the arrowheads path.
+     *
+     * @return The position in the line buffer after the shaft.
+     */
+    private int appendArrow(FloatSeries series, int segment, int n) {
+        int i = segment * 4;
+        float fromX = getDrawX(series.get(i));
+        float fromY = getDrawY(series.get(i + 1));
+        float toX = getDrawX(series.get(i + 2));
+        float toY = getDrawY(series.get(i + 3));
+        mSeriesLinesBuffer[n] = fromX;
+        mSeriesLinesBuffer[n + 1] = fromY;
+        mSeriesLinesBuffer[n + 2] = toX;
+        mSeriesLinesBuffer[n + 3] = toY;
+        addArrowHead(mArrowHeadsPath, fromX, fromY, toX, toY);
+        return n + 4;
+    }
+
     /**
      * Draws the overscroll "glow" at the four edges of the chart region, if necessary. The edges
      * of the chart region are stored in {@link #mContentRect}.
@@ -718,16 +938,23 @@ public class MyChartView extends View {
     }
 
     private void touchUp(float x, float y) {
-        mSeriesData.add(getRealX(x));
-        mSeriesData.add(getRealY(y));
+        mSeriesData.add(getRealX(x), getRealY(y));
+        int size = mSeriesData.size();
+        if (size % 4 == 0) {
+            float x0 = mSeriesData.get(size - 4);
+            float y0 = mSeriesData.get(size - 3);
+            float x1 = mSeriesData.get(size - 2);
+            float y1 = mSeriesData.get(size - 1);
+            mSegmentGrid.add(x0, y0, x1, y1);
+            mSeriesLod.add(x0, y0, x1, y1);
+        }
     }
 
     private void touchMove(float x, float y) {
     }
 
     private void touchStart(float x, float y) {
-        mSeriesData.add(getRealX(x));
-        mSeriesData.add(getRealY(y));
+        mSeriesData.add(getRealX(x), getRealY(y));
     }
 
     /**
@@ -1272,9 +1499,70 @@ public class MyChartView extends View {
         float[] stops = new float[]{};
         int numStops;
         int decimals;
+
+        // Labels of the stops, stored one after the other
+        char[] labels = new char[]{};
+        int[] labelOffsets = new int[]{};
+        int[] labelLengths = new int[]{};
+        final char[] labelBuffer = new char[100];
+
+        // Inputs and results of the last computation, to skip unchanged ones
+        double range = Double.NaN;
+        int steps = -1;
+        double interval = Double.NaN;
+        double first;
+        double last;
+    }
+
+    /**
+     * Shows the floor plan behind everything else, or no floor plan for null. Its tiles are
+     * decoded in the background and the chart is redrawn when one is ready.
+     */
+    public void setImage(FloorPlanLayer floorPlan) {
+        if (mFloorPlan != null) {
+            mFloorPlan.setOnTileReady(null);
+        }
+        mFloorPlan = floorPlan;
+        if (floorPlan != null) {
+            floorPlan.setOnTileReady(this::invalidate);
+        }
+        invalidate();
+    }
+
+    /**
+     * Shows the heatmap below the axes and the series, or no heatmap for null. The heatmap
+     * computes its tiles in the background and redraws the chart when one is ready.
+     */
+    public void setHeatmap(HeatmapLayer heatmap) {
+        if (mHeatmap != null) {
+            mHeatmap.setOnTileReady(null);
+        }
+        mHeatmap = heatmap;
+        if (heatmap != null) {
+            heatmap.setOnTileReady(this::invalidate);
+        }
+        invalidate();
     }
 
-    public List<Float> getSeriesData() {
-        return mSeriesData;
+    /**
+     * Stores the last point of the drawn path, in chart coordinates, in out.
+     *
+     * @return False if nothing was drawn yet.
+     */
+    public boolean getLastPoint(PointF out) {
+        int size = mSeriesData.size();
+        if (size < 2) {
+            return false;
+        }
+        out.set(mSeriesData.get(size - 2), mSeriesData.get(size - 1));
+        return true;
+    }
+
+    /**
+     * Returns a read-only view of the drawn path, as x and y values of its points in chart
+     * coordinates.
+     */
+    public FloatSeries getSeriesData() {
+        return mSeriesDataView;
     }
 }
\ No newline at end of file
@@ -0,0 +1,58 @@
+package mili.wifiscanner;
+
+import android.util.Log;
+
+import weka.classifiers.bayes.NaiveBayesUpdateable;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * An updateable room classifier that learns from every labeled training scan on the device.
+ * <p>
+ * Wraps Weka's {@link NaiveBayesUpdateable}: each update only touches the per-class estimators
+ * of every feature, so learning one scan is O(features). Updates are expected to run on a
+ * background thread while predictions happen on the UI thread, so both go through the same
+ * lock. The lock is only held for the short update/classify itself.
+ */
+public class OnlineLearner {
+    private static final String TAG = "OnlineLearner";
+
+    private final NaiveBayesUpdateable mClassifier = new NaiveBayesUpdateable();
+    private int mNumTrained = 0;
+
+    /**
+     * @param header Empty data set describing the features and the class attribute.
+     */
+    public OnlineLearner(Instances header) throws Exception {
+        // Building on an empty copy only initializes the estimators.
+        mClassifier.buildClassifier(new Instances(header, 0));
+    }
+
+    /**
+     * Learns from a single labeled instance. The class value must be set.
+     */
+    public synchronized void learn(Instance instance) {
+        try {
+            mClassifier.updateClassifier(instance);
+            mNumTrained++;
+        } catch (Exception e) {
+            Log.d(TAG, "update failed");
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Returns the class distribution for the given instance.
+     */
+    public synchronized double[] distributionForInstance(Instance instance) throws Exception {
+        return mClassifier.distributionForInstance(instance);
+    }
+
+    /**
+     * Returns the number of scans learned so far. No prediction should be trusted before the
+     * learner has seen at least one scan.
+     */
+    public synchronized int numTrained() {
+        return mNumTrained;
+    }
+}
@@ -0,0 +1,91 @@
+package mili.wifiscanner;
+
+/**
+ * Base class for sources that compute their scans instead of waiting for a radio.
+ * <p>
+ * {@link #requestScan()} delivers the next scan on the calling thread. With a positive rate,
+ * {@link #start()} additionally runs a thread that delivers scans at that rate.
+ */
+public abstract class PacedScanSource implements ScanSource {
+    private volatile Listener mListener;
+    private volatile double mRate;
+    private Thread mThread;
+
+    /**
+     * Returns the next scan, or null if the source has no more scans.
+     */
+    protected abstract ScanSnapshot next();
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * Sets the number of scans per second delivered after {@link #start()}. 0, the default,
+     * delivers scans only on request.
+     */
+    public void setRate(double scansPerSecond) {
+        mRate = scansPerSecond;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mThread != null || mRate <= 0) {
+            return;
+        }
+        mThread = new Thread(this::run, getClass().getSimpleName());
+        mThread.start();
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (mThread != null) {
+            mThread.interrupt();
+            mThread = null;
+        }
+    }
+
+    @Override
+    public boolean requestScan() {
+        return deliverNext();
+    }
+
+    private boolean deliverNext() {
+        ScanSnapshot snapshot;
+        synchronized (this) {
+            snapshot = next();
+        }
+        Listener listener = mListener;
+        if (snapshot == null) {
+            return false;
+        }
+        if (listener != null) {
+            listener.onScanAvailable(snapshot);
+        }
+        return true;
+    }
+
+    private void run() {
+        long period = (long) (1e9 / mRate);
+        long deadline = System.nanoTime();
+        while (!Thread.currentThread().isInterrupted()) {
+            if (!deliverNext()) {
+                return;
+            }
+            // Paces against absolute deadlines so that slow listeners do not lower the rate
+            // unless they are slower than the period itself.
+            deadline += period;
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1000000, (int) (wait % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            } else {
+                deadline = System.nanoTime();
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package mili.wifiscanner;
+
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Streaming per-(room, BSSID) signal statistics, updated on every training scan.
+ * <p>
+ * For each cell it keeps the number of detections, the Welford running mean and sum of squared
+ * differences of the RSSI and a small fixed-bin RSSI histogram. Together with the number of
+ * scans per room this gives the detection rate. Everything is stored in flat primitive arrays
+ * indexed by {@code room * numBssids + bssid}.
+ */
+public class RadioMap {
+    private static final String TAG = "RadioMap";
+    private static final int FILE_MAGIC = 0x52414d31; // "RAM1"
+
+    /**
+     * Histogram bins of {@link #BIN_WIDTH} dBm starting at {@link #BIN_MIN_RSSI}. Readings
+     * outside the range are clamped into the first or last bin.
+     */
+    public static final int NUM_BINS = 8;
+    public static final int BIN_MIN_RSSI = -100;
+    public static final int BIN_WIDTH = 10;
+
+    private final String[] mBssids;
+    private final int mNumRooms;
+    private final int mNumBssids;
+
+    private final int[] mRoomScans;
+    private final int[] mCount;
+    private final double[] mMean;
+    private final double[] mM2;
+    private final int[] mHistogram;
+
+    public RadioMap(String[] bssids, int numRooms) {
+        mBssids = bssids;
+        mNumRooms = numRooms;
+        mNumBssids = bssids.length;
+        int cells = mNumRooms * mNumBssids;
+        mRoomScans = new int[mNumRooms];
+        mCount = new int[cells];
+        mMean = new double[cells];
+        mM2 = new double[cells];
+        mHistogram = new int[cells * NUM_BINS];
+    }
+
+    /**
+     * Returns the histogram bin of the given RSSI.
+     */
+    public static int binOf(int rssi) {
+        int bin = (rssi - BIN_MIN_RSSI) / BIN_WIDTH;
+        return bin < 0 ? 0 : (bin >= NUM_BINS ? NUM_BINS - 1 : bin);
+    }
+
+    /**
+     * Adds one labeled scan, given as a fingerprint over the same vocabulary.
+     */
+    public synchronized void update(int room, Fingerprint fingerprint) {
+        if (room < 0 || room >= mNumRooms) {
+            return;
+        }
+        mRoomScans[room]++;
+        int base = room * mNumBssids;
+        for (int i = 0; i < fingerprint.size(); i++) {
+            add(base + fingerprint.indexAt(i), fingerprint.valueAt(i));
+        }
+    }
+
+    private void add(int cell, int rssi) {
+        int n = ++mCount[cell];
+        double delta = rssi - mMean[cell];
+        mMean[cell] += delta / n;
+        mM2[cell] += delta * (rssi - mMean[cell]);
+        mHistogram[cell * NUM_BINS + binOf(rssi)]++;
+    }
+
+    public int numRooms() {
+        return mNumRooms;
+    }
+
+    public int numBssids() {
+        return mNumBssids;
+    }
+
+    public String[] getBssids() {
+        return mBssids;
+    }
+
+    public synchronized int getRoomScans(int room) {
+        return mRoomScans[room];
+    }
+
+    public synchronized int getCount(int room, int bssid) {
+        return mCount[room * mNumBssids + bssid];
+    }
+
+    public synchronized double getMean(int room, int bssid) {
+        return mMean[room * mNumBssids + bssid];
+    }
+
+    /**
+     * Returns the sample variance, or 0 with less than two detections.
+     */
+    public synchronized double getVariance(int room, int bssid) {
+        int cell = room * mNumBssids + bssid;
+        return mCount[cell] > 1 ? mM2[cell] / (mCount[cell] - 1) : 0;
+    }
+
+    /**
+     * Returns the fraction of the room's scans in which the BSSID was seen.
+     */
+    public synchronized double getDetectionRate(int room, int bssid) {
+        return mRoomScans[room] == 0
+                ? 0 : (double) mCount[room * mNumBssids + bssid] / mRoomScans[room];
+    }
+
+    /**
+     * Copies the histogram of the cell into out, which must hold {@link #NUM_BINS} values.
+     */
+    public synchronized void getHistogram(int room, int bssid, int[] out) {
+        System.arraycopy(mHistogram, (room * mNumBssids + bssid) * NUM_BINS, out, 0, NUM_BINS);
+    }
+
+    /**
+     * Writes the map in a compact binary form. Only cells with detections are stored. The map
+     * goes to a temporary file first that then replaces the file, so a crash while saving
+     * leaves the previous map intact.
+     */
+    public synchronized void save(File file) throws IOException {
+        file.getParentFile().mkdirs();
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        int used;
+        try {
+            out.writeInt(FILE_MAGIC);
+            out.writeInt(mNumRooms);
+            out.writeInt(mNumBssids);
+            for (String bssid : mBssids) {
+                out.writeUTF(bssid);
+            }
+            for (int room = 0; room < mNumRooms; room++) {
+                out.writeInt(mRoomScans[room]);
+            }
+            used = 0;
+            for (int count : mCount) {
+                if (count > 0) {
+                    used++;
+                }
+            }
+            out.writeInt(used);
+            for (int cell = 0; cell < mCount.length; cell++) {
+                if (mCount[cell] == 0) {
+                    continue;
+                }
+                out.writeInt(cell);
+                out.writeInt(mCount[cell]);
+                out.writeFloat((float) mMean[cell]);
+                out.writeFloat((float) mM2[cell]);
+                for (int bin = 0; bin < NUM_BINS; bin++) {
+                    out.writeInt(mHistogram[cell * NUM_BINS + bin]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Could not replace " + file + " with " + tmp);
+        }
+        Log.d(TAG, "Saved " + used + " of " + mCount.length + " cells to " + file);
+    }
+
+    /**
+     * Reads a map written by {@link #save}. Returns null if the file does not exist, cannot be
+     * read, is corrupt or was written for another BSSID vocabulary or number of rooms.
+     */
+    public static RadioMap load(File file, String[] bssids, int numRooms) {
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != FILE_MAGIC
+                        || in.readInt() != numRooms
+                        || in.readInt() != bssids.length) {
+                    return null;
+                }
+                for (String bssid : bssids) {
+                    if (!bssid.equals(in.readUTF())) {
+                        return null;
+                    }
+                }
+                RadioMap map = new RadioMap(bssids, numRooms);
+                for (int room = 0; room < numRooms; room++) {
+                    map.mRoomScans[room] = in.readInt();
+                }
+                int cells = map.mCount.length;
+                int used = in.readInt();
+                if (used < 0 || used > cells) {
+                    Log.d(TAG, "Radio map has an invalid number of cells: " + used);
+                    return null;
+                }
+                for (int i = 0; i < used; i++) {
+                    int cell = in.readInt();
+                    if (cell < 0 || cell >= cells) {
+                        Log.d(TAG, "Radio map has an invalid cell: " + cell);
+                        return null;
+                    }
+                    map.mCount[cell] = in.readInt();
+                    map.mMean[cell] = in.readFloat();
+                    map.mM2[cell] = in.readFloat();
+                    for (int bin = 0; bin < NUM_BINS; bin++) {
+                        map.mHistogram[cell * NUM_BINS + bin] = in.readInt();
+                    }
+                }
+                return map;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Radio map could not be read.");
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
@@ -8,10 +8,13 @@ import androidx.fragment.app.Fragment;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.EditText;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -33,6 +36,8 @@ public class RecyclerFragment extends Fragment {
 
     private RecyclerView mRecyclerView;
     private ScanAdapter mAdapter;
+    private ScanAdapter.Order mOrder = ScanAdapter.Order.RSSI;
+    private int mMinRssi = Integer.MIN_VALUE;
 
     // TODO: Rename and change types of parameters
     private String mParam1;
@@ -43,9 +48,32 @@ public class RecyclerFragment extends Fragment {
         Log.d(TAG, "RecyclerFragment constructor called.");
     }
 
-    public void update() {
-        mAdapter.swapData(((MainActivity)requireActivity()).mAccessPoints);
-        mAdapter.notifyDataSetChanged();
+    /**
+     * Shows the given scan, usually the one the frame coalescer picked for this frame.
+     */
+    public void update(ScanSnapshot snapshot) {
+        // The adapter diffs the results itself and notifies only the rows that changed.
+        mAdapter.swapData(snapshot);
+    }
+
+    /**
+     * Sorts the list in the given order from now on.
+     */
+    public void setOrder(ScanAdapter.Order order) {
+        mOrder = order;
+        if (mAdapter != null) {
+            mAdapter.setOrder(order);
+        }
+    }
+
+    /**
+     * Hides the APs below the given RSSI from now on.
+     */
+    public void setMinRssi(int minRssi) {
+        mMinRssi = minRssi;
+        if (mAdapter != null) {
+            mAdapter.setMinRssi(minRssi);
+        }
     }
 
     /**
@@ -85,7 +113,27 @@ public class RecyclerFragment extends Fragment {
     @Override
     public void onViewCreated(@NonNull @NotNull View view, @Nullable @org.jetbrains.annotations.Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
-        mAdapter = new ScanAdapter(((MainActivity)requireActivity()).mAccessPoints);
+        MainActivity activity = (MainActivity) requireActivity();
+        mAdapter = new ScanAdapter(activity.getLatestScan(), activity.getRssiHistory());
+        mAdapter.setOrder(mOrder);
+        mAdapter.setMinRssi(mMinRssi);
+
+        EditText filterEditText = view.findViewById(R.id.access_point_filter_edit_text);
+        mAdapter.setPrefix(filterEditText.getText().toString());
+        filterEditText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                mAdapter.setPrefix(s.toString().trim());
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+            }
+        });
 
         mRecyclerView = getView().findViewById(R.id.access_point_information_recycler_view);
         mRecyclerView.setAdapter(mAdapter);
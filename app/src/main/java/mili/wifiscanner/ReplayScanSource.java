@@ -0,0 +1,124 @@
+package mili.wifiscanner;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Replays the scans of a log written by {@link DataWriter#writeToFiles}, in order. Every scan is
+ * labeled with the room it was recorded in. A marker written by {@link DataWriter#writeRepeat}
+ * replays the readings of the scan before it again, marked as a repeat.
+ */
+public class ReplayScanSource extends PacedScanSource {
+    private final List<ScanSnapshot> mSnapshots;
+    private boolean mLoop;
+    private int mPosition;
+
+    /**
+     * Reads the whole log. Lines that are not part of a scan block are skipped.
+     */
+    public ReplayScanSource(Reader reader) throws IOException {
+        mSnapshots = new ArrayList<>();
+        parse(new BufferedReader(reader));
+    }
+
+    /**
+     * Starts over from the first scan after the last one instead of running dry.
+     */
+    public void setLoop(boolean loop) {
+        mLoop = loop;
+    }
+
+    public int size() {
+        return mSnapshots.size();
+    }
+
+    @Override
+    protected ScanSnapshot next() {
+        if (mPosition >= mSnapshots.size()) {
+            if (!mLoop || mSnapshots.isEmpty()) {
+                return null;
+            }
+            mPosition = 0;
+        }
+        return mSnapshots.get(mPosition++);
+    }
+
+    private void parse(BufferedReader reader) throws IOException {
+        SimpleDateFormat formatter = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        long[] macs = new long[64];
+        byte[] rssi = new byte[64];
+        int size = 0;
+        String room = null;
+        long timestamp = 0;
+
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.startsWith("room ")) {
+                // "room <id> <date> <time>"
+                String[] parts = line.split(" ", 3);
+                room = parts.length > 1 ? parts[1] : null;
+                timestamp = parseTimestamp(formatter, parts);
+                size = 0;
+            } else if (line.startsWith("repeat room ")) {
+                // "repeat room <id> <date> <time>", after the block of the repeated scan
+                String[] parts = line.substring("repeat ".length()).split(" ", 3);
+                if (!mSnapshots.isEmpty() && parts.length > 1) {
+                    ScanSnapshot last = mSnapshots.get(mSnapshots.size() - 1);
+                    mSnapshots.add(repeatOf(last, parseTimestamp(formatter, parts), parts[1]));
+                }
+            } else if (line.isEmpty()) {
+                if (room != null) {
+                    add(room, timestamp, macs, rssi, size);
+                    room = null;
+                }
+            } else if (room != null) {
+                // "<i> <bssid> <rssi>"; the column header does not parse as a MAC.
+                String[] parts = line.split(" ");
+                long mac = parts.length == 3 ? ScanSnapshot.packMac(parts[1]) : -1;
+                if (mac < 0) {
+                    continue;
+                }
+                if (size == macs.length) {
+                    macs = Arrays.copyOf(macs, size * 2);
+                    rssi = Arrays.copyOf(rssi, size * 2);
+                }
+                macs[size] = mac;
+                rssi[size] = ScanSnapshot.toRssiByte(Integer.parseInt(parts[2]));
+                size++;
+            }
+        }
+        if (room != null) {
+            add(room, timestamp, macs, rssi, size);
+        }
+    }
+
+    private static long parseTimestamp(SimpleDateFormat formatter, String[] parts) {
+        try {
+            return parts.length > 2 ? formatter.parse(parts[2]).getTime() : 0;
+        } catch (ParseException e) {
+            return 0;
+        }
+    }
+
+    private void add(String room, long timestamp, long[] macs, byte[] rssi, int size) {
+        mSnapshots.add(new ScanSnapshot(timestamp,
+                Arrays.copyOf(macs, size), Arrays.copyOf(rssi, size), null).withLabel(room));
+    }
+
+    private static ScanSnapshot repeatOf(ScanSnapshot scan, long timestamp, String room) {
+        long[] macs = new long[scan.size()];
+        byte[] rssi = new byte[scan.size()];
+        for (int i = 0; i < macs.length; i++) {
+            macs[i] = scan.macAt(i);
+            rssi[i] = (byte) scan.rssiAt(i);
+        }
+        return new ScanSnapshot(timestamp, macs, rssi, null).withLabel(room).asRepeat();
+    }
+}
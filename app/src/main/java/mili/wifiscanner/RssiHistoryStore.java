@@ -0,0 +1,134 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+
+/**
+ * The last RSSI readings of every AP, keyed by packed MAC.
+ * <p>
+ * All histories live in one byte array, as a ring of {@link #getLength} readings per AP, and
+ * the APs are found through an open-addressing index like the one of
+ * {@link FingerprintVectorizer}. Recording a scan allocates nothing unless the index has to
+ * grow. Scans are recorded on one thread while views read on another, so both lock the store
+ * for the few array copies they make.
+ */
+public class RssiHistoryStore {
+    private static final int INITIAL_APS = 256;
+
+    private final int mLength;
+    private int mMask;
+    private long[] mKeys;
+    private int[] mSlots;
+    private int mNumAps;
+
+    // Per AP: mLength readings, the position of the next one and the number recorded
+    private byte[] mReadings;
+    private int[] mHeads;
+    private int[] mCounts;
+
+    /**
+     * @param length Number of readings kept per AP.
+     */
+    public RssiHistoryStore(int length) {
+        mLength = length;
+        allocate(INITIAL_APS);
+    }
+
+    public int getLength() {
+        return mLength;
+    }
+
+    /**
+     * Appends the readings of a scan to the histories of its APs.
+     */
+    public synchronized void record(ScanSnapshot snapshot) {
+        for (int i = 0; i < snapshot.size(); i++) {
+            long mac = snapshot.macAt(i);
+            if (mac < 0) {
+                continue;
+            }
+            int ap = apOf(mac, true);
+            mReadings[ap * mLength + mHeads[ap]] = ScanSnapshot.toRssiByte(snapshot.rssiAt(i));
+            mHeads[ap] = (mHeads[ap] + 1) % mLength;
+            mCounts[ap] = Math.min(mLength, mCounts[ap] + 1);
+        }
+    }
+
+    /**
+     * Copies the history of the AP into out, oldest reading first.
+     *
+     * @return The number of readings copied, 0 for an unknown AP.
+     */
+    public synchronized int copyHistory(long mac, int[] out) {
+        int ap = mac < 0 ? -1 : apOf(mac, false);
+        if (ap < 0) {
+            return 0;
+        }
+        int count = Math.min(out.length, mCounts[ap]);
+        int start = mHeads[ap] - count;
+        for (int i = 0; i < count; i++) {
+            out[i] = mReadings[ap * mLength + Math.floorMod(start + i, mLength)];
+        }
+        return count;
+    }
+
+    public synchronized void clear() {
+        allocate(INITIAL_APS);
+    }
+
+    private int apOf(long mac, boolean add) {
+        int slot = (int) ((mac * 0x9E3779B97F4A7C15L) >>> 32) & mMask;
+        while (mKeys[slot] != -1) {
+            if (mKeys[slot] == mac) {
+                return mSlots[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        if (!add) {
+            return -1;
+        }
+        if (mNumAps == mCounts.length) {
+            grow();
+            return apOf(mac, true);
+        }
+        mKeys[slot] = mac;
+        mSlots[slot] = mNumAps;
+        return mNumAps++;
+    }
+
+    private void allocate(int aps) {
+        int capacity = Integer.highestOneBit(aps) * 2;
+        mMask = capacity - 1;
+        mKeys = new long[capacity];
+        mSlots = new int[capacity];
+        Arrays.fill(mKeys, -1);
+        mNumAps = 0;
+        mReadings = new byte[aps * mLength];
+        mHeads = new int[aps];
+        mCounts = new int[aps];
+    }
+
+    private void grow() {
+        long[] keys = mKeys;
+        int[] slots = mSlots;
+        byte[] readings = mReadings;
+        int[] heads = mHeads;
+        int[] counts = mCounts;
+        int numAps = mNumAps;
+        allocate(counts.length * 2);
+        System.arraycopy(readings, 0, mReadings, 0, readings.length);
+        System.arraycopy(heads, 0, mHeads, 0, numAps);
+        System.arraycopy(counts, 0, mCounts, 0, numAps);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] == -1) {
+                continue;
+            }
+            int slot = (int) ((keys[i] * 0x9E3779B97F4A7C15L) >>> 32) & mMask;
+            while (mKeys[slot] != -1) {
+                slot = (slot + 1) & mMask;
+            }
+            mKeys[slot] = keys[i];
+            mSlots[slot] = slots[i];
+        }
+        mNumAps = numAps;
+    }
+}
@@ -1,34 +1,77 @@
 package mili.wifiscanner;
 
-import android.net.wifi.ScanResult;
-import android.util.Log;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListUpdateCallback;
 import androidx.recyclerview.widget.RecyclerView;
 
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+/**
+ * Lists the APs of a {@link ScanSnapshot} below a header row, sorted and filtered.
+ * <p>
+ * The adapter never copies the snapshot: a shown list is the snapshot plus the order of its AP
+ * indices that pass the filter. The APs are filtered by a BSSID or SSID prefix and a minimum
+ * RSSI and sorted on a background thread whenever a scan arrives or the order or filter
+ * changes, never on the main thread. The new order is diffed against the shown one on the same
+ * thread, keyed by BSSID, and only the rows that changed or moved are rebound. A row whose AP
+ * has a different RSSI gets a partial bind that updates just the RSSI text and the sparkline,
+ * and a row whose RSSI is unchanged is not bound at all. Rows have stable ids (the packed
+ * BSSID), so views are kept for the same AP across scans.
+ * <p>
+ * Every row shows a sparkline of the last readings of its AP from a shared
+ * {@link RssiHistoryStore}. The store has a new reading for every AP of a new scan, so the
+ * sparklines of the attached rows are redrawn, without a bind, whenever the scan changes.
+ */
 public class ScanAdapter extends RecyclerView.Adapter<ScanAdapter.ViewHolder> {
     private static final String TAG = "ScanAdapter";
-    private List<ScanResult> localDataSet;
+    private static final Object PAYLOAD_READING = new Object();
+    private static final long HEADER_ID = Long.MAX_VALUE;
+    private static final ScanSnapshot EMPTY =
+            new ScanSnapshot(0, new long[0], new byte[0], null);
+    // Sorts and filters for all adapters, one list at a time, so lists are shown in order.
+    private static final ExecutorService SORT_EXECUTOR = Executors.newSingleThreadExecutor();
+    private static final LatencyHistogram SORT_DIFF_TIME =
+            Metrics.histogram(Metrics.ADAPTER_SORT_DIFF);
+    private static final LatencyHistogram DISPATCH_TIME =
+            Metrics.histogram(Metrics.ADAPTER_DISPATCH);
 
-    public void swapData(List<ScanResult> results) {
-        localDataSet.clear();
-
-        if ((results != null) && (results.size() > 0)) {
-            localDataSet.addAll(results);
-        }
-        notifyDataSetChanged();
-        Log.d(TAG, localDataSet.size() + " APs discovered.");
-        //        String info = "First AP\nSSID: " + mAccessPoints.get(0).SSID + "\n"
-        //                + "BSSID: " + mAccessPoints.get(0).BSSID + "\n"
-        //                + "RSSI: " + mAccessPoints.get(0).level + " dBm\n";
-        //        Log.d(TAG, info);
+    /**
+     * The orders the list can be sorted in.
+     */
+    public enum Order {
+        /** Strongest first. */
+        RSSI,
+        BSSID,
+        SSID
     }
 
+    private final RssiHistoryStore mHistoryStore;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private RecyclerView mRecyclerView;
+
+    // Only touched on the main thread
+    private ScanSnapshot mSnapshot = EMPTY;
+    private Order mOrder = Order.RSSI;
+    private String mPrefix = "";
+    private int mMinRssi = Integer.MIN_VALUE;
+    private int mGeneration;
+
+    // The shown list: the snapshot indices of the rows, only touched on the main thread
+    private ScanSnapshot mShownSnapshot = EMPTY;
+    private int[] mShownOrder = new int[0];
+
     /**
      * Provide a reference to the type of views that you are using
      * (custom ViewHolder).
@@ -36,12 +79,14 @@ public class ScanAdapter extends RecyclerView.Adapter<ScanAdapter.ViewHolder> {
     public static class ViewHolder extends RecyclerView.ViewHolder {
         private final TextView mBSSIDTextView;
         private final TextView mRSSITextView;
+        private final SparklineView mSparklineView;
 
         public ViewHolder(View view) {
             super(view);
             // Define click listener for the ViewHolder's View
             mBSSIDTextView = (TextView) view.findViewById(R.id.bssid_text_view);
             mRSSITextView = (TextView) view.findViewById(R.id.rssi_text_view);
+            mSparklineView = (SparklineView) view.findViewById(R.id.rssi_sparkline_view);
         }
 
         public TextView getmBSSIDTextView() {
@@ -50,17 +95,209 @@ public class ScanAdapter extends RecyclerView.Adapter<ScanAdapter.ViewHolder> {
         public TextView getmRSSITextView() {
             return mRSSITextView;
         }
+        public SparklineView getmSparklineView() {
+            return mSparklineView;
+        }
 
     }
 
     /**
      * Initialize the dataset of the Adapter.
      *
-     * @param dataSet List<ScanResult> containing the data to populate views to be used
-     * by RecyclerView.
+     * @param snapshot Scan to show first, or null.
+     * @param historyStore RSSI histories for the sparklines of the rows.
+     */
+    public ScanAdapter(ScanSnapshot snapshot, RssiHistoryStore historyStore) {
+        mHistoryStore = historyStore;
+        setHasStableIds(true);
+        swapData(snapshot);
+    }
+
+    /**
+     * Shows the given scan. The rows are updated once the sort and diff, which run on a
+     * background thread, are done. Must be called on the main thread.
+     */
+    public void swapData(ScanSnapshot snapshot) {
+        mSnapshot = snapshot == null ? EMPTY : snapshot;
+        refresh();
+    }
+
+    public Order getOrder() {
+        return mOrder;
+    }
+
+    public void setOrder(Order order) {
+        mOrder = order;
+        refresh();
+    }
+
+    /**
+     * Only shows the APs whose BSSID or SSID starts with the prefix, ignoring case.
+     */
+    public void setPrefix(String prefix) {
+        mPrefix = prefix == null ? "" : prefix.toLowerCase(Locale.ROOT);
+        refresh();
+    }
+
+    /**
+     * Only shows the APs with at least the given RSSI.
+     */
+    public void setMinRssi(int minRssi) {
+        mMinRssi = minRssi;
+        refresh();
+    }
+
+    private void refresh() {
+        final ScanSnapshot snapshot = mSnapshot;
+        final Order order = mOrder;
+        final String prefix = mPrefix;
+        final int minRssi = mMinRssi;
+        final ScanSnapshot oldSnapshot = mShownSnapshot;
+        final int[] oldOrder = mShownOrder;
+        final int generation = ++mGeneration;
+        SORT_EXECUTOR.execute(() -> {
+            long sortStart = System.nanoTime();
+            final int[] newOrder = filterAndSort(snapshot, order, prefix, minRssi);
+            final DiffUtil.DiffResult diff = DiffUtil.calculateDiff(
+                    new OrderDiffCallback(oldSnapshot, oldOrder, snapshot, newOrder));
+            SORT_DIFF_TIME.recordSince(sortStart);
+            mMainHandler.post(() -> {
+                // A newer list is on its way already, diffed against what is shown then.
+                if (generation != mGeneration) {
+                    return;
+                }
+                long dispatchStart = System.nanoTime();
+                boolean newScan = snapshot != mShownSnapshot;
+                mShownSnapshot = snapshot;
+                mShownOrder = newOrder;
+                diff.dispatchUpdatesTo(new HeaderOffsetCallback(this));
+                if (newScan) {
+                    invalidateSparklines();
+                }
+                DISPATCH_TIME.recordSince(dispatchStart);
+            });
+        });
+    }
+
+    /**
+     * Redraws the sparklines of the attached rows, which the diff leaves alone when only their
+     * history changed.
      */
-    public ScanAdapter(List<ScanResult> dataSet) {
-        localDataSet = dataSet;
+    private void invalidateSparklines() {
+        if (mRecyclerView == null) {
+            return;
+        }
+        for (int i = 0; i < mRecyclerView.getChildCount(); i++) {
+            ViewHolder holder = (ViewHolder) mRecyclerView.getChildViewHolder(
+                    mRecyclerView.getChildAt(i));
+            holder.getmSparklineView().invalidate();
+        }
+    }
+
+    private static int[] filterAndSort(ScanSnapshot snapshot, Order order, String prefix,
+                                       int minRssi) {
+        int[] indices = new int[snapshot.size()];
+        int size = 0;
+        for (int i = 0; i < snapshot.size(); i++) {
+            if (snapshot.macAt(i) >= 0 && snapshot.rssiAt(i) >= minRssi && (prefix.isEmpty()
+                    || macStartsWith(snapshot.macAt(i), prefix)
+                    || startsWithIgnoreCase(snapshot.ssidAt(i), prefix))) {
+                indices[size++] = i;
+            }
+        }
+        int[] sorted = new int[size];
+        System.arraycopy(indices, 0, sorted, 0, size);
+        mergeSort(sorted, indices, 0, size, snapshot, order);
+        return sorted;
+    }
+
+    /**
+     * Sorts a[from, to) stably in the given order, using scratch as temporary space.
+     */
+    private static void mergeSort(int[] a, int[] scratch, int from, int to,
+                                  ScanSnapshot snapshot, Order order) {
+        if (to - from < 2) {
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(a, scratch, from, middle, snapshot, order);
+        mergeSort(a, scratch, middle, to, snapshot, order);
+        System.arraycopy(a, from, scratch, from, to - from);
+        int i = from;
+        int j = middle;
+        for (int k = from; k < to; k++) {
+            if (j >= to || (i < middle && compare(snapshot, order, scratch[i], scratch[j]) <= 0)) {
+                a[k] = scratch[i++];
+            } else {
+                a[k] = scratch[j++];
+            }
+        }
+    }
+
+    private static int compare(ScanSnapshot snapshot, Order order, int a, int b) {
+        int result = 0;
+        if (order == Order.RSSI) {
+            result = Integer.compare(snapshot.rssiAt(b), snapshot.rssiAt(a));
+        } else if (order == Order.SSID) {
+            result = compareStrings(snapshot.ssidAt(a), snapshot.ssidAt(b));
+        }
+        // Packed MACs sort like their text.
+        return result != 0 ? result : Long.compare(snapshot.macAt(a), snapshot.macAt(b));
+    }
+
+    /**
+     * Returns whether the "aa:bb:cc:dd:ee:ff" form of the packed MAC starts with the lower case
+     * prefix, without formatting it.
+     */
+    private static boolean macStartsWith(long mac, String lowerCasePrefix) {
+        if (lowerCasePrefix.length() > 17) {
+            return false;
+        }
+        for (int i = 0, shift = 44; i < lowerCasePrefix.length(); i++) {
+            char c;
+            if (i % 3 == 2) {
+                c = ':';
+            } else {
+                c = Character.forDigit((int) (mac >>> shift) & 0xf, 16);
+                shift -= 4;
+            }
+            if (c != lowerCasePrefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean startsWithIgnoreCase(String value, String lowerCasePrefix) {
+        return value != null && value.regionMatches(true, 0, lowerCasePrefix, 0,
+                lowerCasePrefix.length());
+    }
+
+    private static int compareStrings(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : 1) : -1;
+        }
+        return a.compareToIgnoreCase(b);
+    }
+
+    @Override
+    public void onAttachedToRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onAttachedToRecyclerView(recyclerView);
+        mRecyclerView = recyclerView;
+    }
+
+    @Override
+    public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+        super.onDetachedFromRecyclerView(recyclerView);
+        mRecyclerView = null;
+    }
+
+    @Override
+    public long getItemId(int position) {
+        if (position == 0) {
+            return HEADER_ID;
+        }
+        return mShownSnapshot.macAt(mShownOrder[position - 1]);
     }
 
     // Create new views (invoked by the layout manager)
@@ -79,19 +316,113 @@ public class ScanAdapter extends RecyclerView.Adapter<ScanAdapter.ViewHolder> {
         // Get element from the dataset at this position and replace the
         // contents of the view with that element
         if (position > 0) {
-            ScanResult result = localDataSet.get(position-1);
-            viewHolder.getmBSSIDTextView().setText(result.BSSID);
-            viewHolder.getmRSSITextView().setText(result.level + " dBm");
+            int i = mShownOrder[position - 1];
+            long mac = mShownSnapshot.macAt(i);
+            viewHolder.getmBSSIDTextView().setText(ScanSnapshot.formatMac(mac));
+            viewHolder.getmRSSITextView().setText(mShownSnapshot.rssiAt(i) + " dBm");
+            viewHolder.getmSparklineView().setHistory(mHistoryStore, mac);
         } else {
             viewHolder.getmBSSIDTextView().setText(R.string.recycler_row_header_label_bssid);
             viewHolder.getmRSSITextView().setText(R.string.recycler_row_header_label_rssi);
+            viewHolder.getmSparklineView().setHistory(mHistoryStore, -1);
+        }
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull ViewHolder viewHolder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (position > 0 && !payloads.isEmpty()) {
+            // Only the RSSI changed since the row was bound.
+            int i = mShownOrder[position - 1];
+            viewHolder.getmRSSITextView().setText(mShownSnapshot.rssiAt(i) + " dBm");
+            viewHolder.getmSparklineView().invalidate();
+        } else {
+            onBindViewHolder(viewHolder, position);
         }
-        // Log.d(TAG, "Element " + position + " set.");
     }
 
     // Return the size of your dataset (invoked by the layout manager)
     @Override
     public int getItemCount() {
-        return localDataSet.size() + 1;
+        return mShownOrder.length + 1;
+    }
+
+    /**
+     * Compares two shown lists by the MACs of their rows, and the contents of a row by its
+     * RSSI, the only other value the row shows as text.
+     */
+    private static class OrderDiffCallback extends DiffUtil.Callback {
+        private final ScanSnapshot mOldSnapshot;
+        private final int[] mOldOrder;
+        private final ScanSnapshot mNewSnapshot;
+        private final int[] mNewOrder;
+
+        OrderDiffCallback(ScanSnapshot oldSnapshot, int[] oldOrder,
+                          ScanSnapshot newSnapshot, int[] newOrder) {
+            mOldSnapshot = oldSnapshot;
+            mOldOrder = oldOrder;
+            mNewSnapshot = newSnapshot;
+            mNewOrder = newOrder;
+        }
+
+        @Override
+        public int getOldListSize() {
+            return mOldOrder.length;
+        }
+
+        @Override
+        public int getNewListSize() {
+            return mNewOrder.length;
+        }
+
+        @Override
+        public boolean areItemsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldSnapshot.macAt(mOldOrder[oldItemPosition])
+                    == mNewSnapshot.macAt(mNewOrder[newItemPosition]);
+        }
+
+        @Override
+        public boolean areContentsTheSame(int oldItemPosition, int newItemPosition) {
+            return mOldSnapshot.rssiAt(mOldOrder[oldItemPosition])
+                    == mNewSnapshot.rssiAt(mNewOrder[newItemPosition]);
+        }
+
+        @Nullable
+        @Override
+        public Object getChangePayload(int oldItemPosition, int newItemPosition) {
+            // The BSSID is the identity of the row, so only the RSSI can differ.
+            return PAYLOAD_READING;
+        }
+    }
+
+    /**
+     * Forwards the updates of a diff to the adapter, shifted past the header row.
+     */
+    private static class HeaderOffsetCallback implements ListUpdateCallback {
+        private final RecyclerView.Adapter<?> mAdapter;
+
+        HeaderOffsetCallback(RecyclerView.Adapter<?> adapter) {
+            mAdapter = adapter;
+        }
+
+        @Override
+        public void onInserted(int position, int count) {
+            mAdapter.notifyItemRangeInserted(position + 1, count);
+        }
+
+        @Override
+        public void onRemoved(int position, int count) {
+            mAdapter.notifyItemRangeRemoved(position + 1, count);
+        }
+
+        @Override
+        public void onMoved(int fromPosition, int toPosition) {
+            mAdapter.notifyItemMoved(fromPosition + 1, toPosition + 1);
+        }
+
+        @Override
+        public void onChanged(int position, int count, @Nullable Object payload) {
+            mAdapter.notifyItemRangeChanged(position + 1, count, payload);
+        }
     }
 }
@@ -0,0 +1,153 @@
+package mili.wifiscanner;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Carries the scans of a {@link ScanSource} to the consumers that process them.
+ * <p>
+ * Set as the listener of the source, the pipeline marks scans that repeat the previous one,
+ * labels every scan, marks the training scans and publishes them to a {@link ScanRingBuffer}.
+ * Each consumer subscribes with its own {@link ScanRingBuffer.Policy} and runs on its own
+ * thread. Nothing here depends on Android, so the pipeline can be driven from a
+ * {@link SyntheticScanSource} on a plain JVM.
+ */
+public class ScanPipeline implements ScanSource.Listener {
+    private static final LongAdder REPEATED_SCANS = Metrics.counter(Metrics.SCAN_REPEATS);
+
+    private final ScanRingBuffer mRing;
+    private final List<ScanRingBuffer.Subscriber> mSubscribers = new CopyOnWriteArrayList<>();
+    private volatile boolean mStarted;
+    private volatile String mLabel;
+    private volatile boolean mTraining;
+    private volatile ScanSource.Listener mObserver;
+    // Content hash of the last published scan, producer thread only
+    private long mLastScanHash;
+
+    /**
+     * @param capacity Number of scans the ring holds, see {@link ScanRingBuffer}.
+     */
+    public ScanPipeline(int capacity) {
+        mRing = new ScanRingBuffer(capacity);
+    }
+
+    public int getCapacity() {
+        return mRing.getCapacity();
+    }
+
+    /**
+     * Sets the label attached to the scans published from now on, e.g. the current room. While
+     * it is null, scans keep the label their source gave them.
+     */
+    public void setLabel(String label) {
+        mLabel = label;
+    }
+
+    /**
+     * Sets whether the scans published from now on are marked as training scans, see
+     * {@link ScanSnapshot#asTraining()}. Consumers that run behind the producer then still
+     * treat each scan the way it was taken.
+     */
+    public void setTraining(boolean training) {
+        mTraining = training;
+    }
+
+    /**
+     * Sets a listener that sees every scan on the producer thread before it is published, after
+     * it was marked as a repeat if it is one. It must return quickly.
+     */
+    public void setObserver(ScanSource.Listener observer) {
+        mObserver = observer;
+    }
+
+    /**
+     * Starts publishing the scans of the source. The next scan is never taken as a repeat.
+     */
+    public void start() {
+        mLastScanHash = 0;
+        mStarted = true;
+    }
+
+    /**
+     * Stops publishing; scans that arrive until {@link #start()} are ignored. The consumers
+     * keep working on the scans already published.
+     */
+    public void stop() {
+        mStarted = false;
+    }
+
+    public boolean isStarted() {
+        return mStarted;
+    }
+
+    /**
+     * Starts a consumer, see {@link ScanRingBuffer#subscribe(String, ScanRingBuffer.Policy,
+     * int, ScanRingBuffer.Consumer)}.
+     */
+    public ScanRingBuffer.Subscriber subscribe(String name, ScanRingBuffer.Policy policy,
+                                               int depth, ScanRingBuffer.Consumer consumer) {
+        ScanRingBuffer.Subscriber subscriber = mRing.subscribe(name, policy, depth, consumer);
+        mSubscribers.add(subscriber);
+        return subscriber;
+    }
+
+    public List<ScanRingBuffer.Subscriber> getSubscribers() {
+        return mSubscribers;
+    }
+
+    /**
+     * Returns the number of scans published since the pipeline was created.
+     */
+    public long getPublished() {
+        return mRing.getCursor() + 1;
+    }
+
+    /**
+     * Stops all consumers. Scans they have not consumed yet are dropped.
+     */
+    public void close() {
+        mStarted = false;
+        mRing.close();
+        mSubscribers.clear();
+    }
+
+    @Override
+    public void onScanAvailable(ScanSnapshot snapshot) {
+        if (!mStarted) {
+            return;
+        }
+        // The platform hands out its cached results again when a scan request was throttled.
+        // Those carry no new readings, so they are only marked as repeats.
+        long hash = snapshot.getContentHash();
+        if (hash == mLastScanHash && snapshot.size() > 0) {
+            snapshot = snapshot.asRepeat();
+            REPEATED_SCANS.increment();
+        }
+        mLastScanHash = hash;
+        ScanSource.Listener observer = mObserver;
+        if (observer != null) {
+            observer.onScanAvailable(snapshot);
+        }
+        // The consumers run later on their own threads, so the scan keeps its label.
+        Tracer.begin("scan.publish");
+        try {
+            String label = mLabel;
+            if (label != null) {
+                snapshot = snapshot.withLabel(label);
+            }
+            mRing.publish(mTraining ? snapshot.asTraining() : snapshot);
+        } finally {
+            Tracer.end();
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("published ").append(getPublished());
+        for (ScanRingBuffer.Subscriber subscriber : mSubscribers) {
+            builder.append('\n').append(subscriber);
+        }
+        return builder.toString();
+    }
+}
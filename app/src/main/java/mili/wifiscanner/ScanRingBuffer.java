@@ -0,0 +1,323 @@
+package mili.wifiscanner;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A preallocated single-producer, multi-consumer ring of {@link ScanSnapshot}s.
+ * <p>
+ * Every consumer runs on its own thread and tracks its own sequence, so a slow consumer only
+ * falls behind itself. What happens when a consumer has more than its queue depth of scans
+ * outstanding is decided by its {@link Policy}; only {@link Policy#BLOCK} ever makes the
+ * producer wait. A consumer that falls more than the capacity behind finds its slots
+ * overwritten; it then continues with the oldest scan still in the ring and counts the skipped
+ * ones as dropped.
+ * <p>
+ * Each slot carries the sequence of the scan in it. The producer invalidates the slot sequence
+ * before replacing the scan and sets it afterwards, so a consumer that reads the same, expected
+ * sequence before and after reading the scan knows the scan is the one it wanted.
+ */
+public class ScanRingBuffer {
+    private static final long INVALID = -1;
+    private static final long BLOCK_POLL_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    /**
+     * What to do with a consumer that has its full queue depth of scans outstanding.
+     */
+    public enum Policy {
+        /** The producer waits until the consumer has room again. Nothing is dropped. */
+        BLOCK,
+        /** The consumer skips the oldest outstanding scans. */
+        DROP_OLDEST,
+        /** New scans are not queued for the consumer until it has room again. */
+        DROP_NEWEST,
+        /** The consumer always skips straight to the latest scan; the depth is ignored. */
+        COALESCE
+    }
+
+    /**
+     * Processes the scans of the ring, on the consumer's own thread. A runtime exception is
+     * logged and only loses the scan it was thrown for; any other throwable stops the consumer.
+     */
+    public interface Consumer {
+        void onScan(ScanSnapshot snapshot, long sequence);
+    }
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicReferenceArray<ScanSnapshot> mEntries;
+    private final AtomicLongArray mSequences;
+    private final AtomicLong mCursor = new AtomicLong(INVALID);
+    private final CopyOnWriteArrayList<Subscriber> mSubscribers = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param capacity Number of slots, rounded up to a power of two.
+     */
+    public ScanRingBuffer(int capacity) {
+        mCapacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        mMask = mCapacity - 1;
+        mEntries = new AtomicReferenceArray<>(mCapacity);
+        mSequences = new AtomicLongArray(mCapacity);
+        for (int i = 0; i < mCapacity; i++) {
+            mSequences.set(i, INVALID);
+        }
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Returns the sequence of the last published scan, or -1 before the first one.
+     */
+    public long getCursor() {
+        return mCursor.get();
+    }
+
+    /**
+     * Publishes a scan and wakes the consumers. Must only be called from one thread at a time.
+     *
+     * @return The sequence of the scan.
+     */
+    public long publish(ScanSnapshot snapshot) {
+        long sequence = mCursor.get() + 1;
+        int slot = (int) sequence & mMask;
+        mSequences.set(slot, INVALID);
+        for (Subscriber subscriber : mSubscribers) {
+            subscriber.beforePublish(sequence, slot);
+        }
+        mEntries.set(slot, snapshot);
+        mSequences.set(slot, sequence);
+        mCursor.set(sequence);
+        for (Subscriber subscriber : mSubscribers) {
+            subscriber.wake();
+        }
+        return sequence;
+    }
+
+    /**
+     * Starts a consumer thread that receives the scans published from now on, dropping the
+     * oldest ones when it falls the whole capacity behind.
+     */
+    public Subscriber subscribe(String name, Consumer consumer) {
+        return subscribe(name, Policy.DROP_OLDEST, mCapacity, consumer);
+    }
+
+    /**
+     * Starts a consumer thread that receives the scans published from now on.
+     *
+     * @param policy What to do when the consumer has depth scans outstanding.
+     * @param depth Maximum number of outstanding scans, at most the capacity.
+     */
+    public Subscriber subscribe(String name, Policy policy, int depth, Consumer consumer) {
+        Subscriber subscriber = new Subscriber(name, policy,
+                Math.max(1, Math.min(depth, mCapacity)), consumer, mCursor.get() + 1);
+        mSubscribers.add(subscriber);
+        subscriber.mThread.start();
+        return subscriber;
+    }
+
+    /**
+     * Stops all consumer threads. Scans they have not consumed yet are dropped.
+     */
+    public void close() {
+        for (Subscriber subscriber : mSubscribers) {
+            subscriber.stop();
+        }
+        mSubscribers.clear();
+    }
+
+    /**
+     * A consumer of the ring together with the thread that feeds it and its counters.
+     */
+    public class Subscriber implements Runnable {
+        private final String mName;
+        private final Policy mPolicy;
+        private final int mDepth;
+        private final Consumer mConsumer;
+        private final Thread mThread;
+        private volatile boolean mRunning = true;
+        private volatile boolean mWaiting;
+        // Next sequence to consume
+        private volatile long mSequence;
+        private final long mFirstSequence;
+        private volatile long mConsumed;
+        // DROP_NEWEST only: per slot, the sequence of the last scan not queued for this
+        // consumer. Written by the producer while the slot is invalid and before its new
+        // sequence is set, so a consumer that reads the valid sequence before and after it
+        // sees the value for that sequence. Atomic like the slot sequences, so the reads are
+        // ordered against them and a value is never torn.
+        private final AtomicLongArray mRejected;
+
+        private Subscriber(String name, Policy policy, int depth, Consumer consumer,
+                           long sequence) {
+            mName = name;
+            mPolicy = policy;
+            mDepth = depth;
+            mConsumer = consumer;
+            mSequence = sequence;
+            mFirstSequence = sequence;
+            if (policy == Policy.DROP_NEWEST) {
+                mRejected = new AtomicLongArray(mCapacity);
+                for (int i = 0; i < mCapacity; i++) {
+                    mRejected.set(i, INVALID);
+                }
+            } else {
+                mRejected = null;
+            }
+            mThread = new Thread(this, name);
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Policy getPolicy() {
+            return mPolicy;
+        }
+
+        /**
+         * Returns the number of published scans this consumer has not got to yet, including
+         * the ones it will skip.
+         */
+        public long getLag() {
+            return Math.max(0, mCursor.get() + 1 - mSequence);
+        }
+
+        /**
+         * Returns the number of scans queued for this consumer, at most its depth.
+         */
+        public long getQueueDepth() {
+            return Math.min(getLag(), mPolicy == Policy.COALESCE ? 1 : mDepth);
+        }
+
+        public long getConsumed() {
+            return mConsumed;
+        }
+
+        /**
+         * Waits until this consumer has got to every scan published so far, e.g. before saving
+         * what it computed from them.
+         *
+         * @return false if the consumer stopped or did not catch up within the timeout.
+         */
+        public boolean awaitCaughtUp(long timeoutMillis) throws InterruptedException {
+            long target = mCursor.get() + 1;
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            while (mSequence < target) {
+                if (!mRunning || System.currentTimeMillis() > deadline) {
+                    return false;
+                }
+                Thread.sleep(1);
+            }
+            return true;
+        }
+
+        /**
+         * Returns the number of scans this consumer skipped, was not given or lost to an
+         * overwrite. Every scan behind its sequence was either consumed or dropped.
+         */
+        public long getDropped() {
+            long consumed = mConsumed;
+            return Math.max(0, mSequence - mFirstSequence - consumed);
+        }
+
+        @Override
+        public String toString() {
+            return mName + " (" + mPolicy + "): consumed " + mConsumed + ", dropped "
+                    + getDropped() + ", lag " + getLag() + ", depth " + getQueueDepth();
+        }
+
+        /**
+         * Applies the producer side of the policy to the scan about to be published.
+         */
+        private void beforePublish(long sequence, int slot) {
+            if (mPolicy == Policy.BLOCK) {
+                while (mRunning && sequence - mSequence >= mDepth) {
+                    LockSupport.unpark(mThread);
+                    LockSupport.parkNanos(BLOCK_POLL_NANOS);
+                }
+            } else if (mPolicy == Policy.DROP_NEWEST && sequence - mSequence >= mDepth) {
+                mRejected.set(slot, sequence);
+            }
+        }
+
+        private void wake() {
+            // Unparking costs a system call, so only consumers that wait are woken.
+            if (mWaiting) {
+                LockSupport.unpark(mThread);
+            }
+        }
+
+        private void stop() {
+            mRunning = false;
+            LockSupport.unpark(mThread);
+        }
+
+        @Override
+        public void run() {
+            try {
+                consume();
+            } finally {
+                // A consumer that died on an error must not keep a BLOCK producer waiting.
+                mRunning = false;
+            }
+        }
+
+        private void consume() {
+            long next = mSequence;
+            while (mRunning) {
+                long cursor = mCursor.get();
+                if (next > cursor) {
+                    // Announces the wait before checking again: a publish after the check sees
+                    // mWaiting and leaves a permit, so no scan is missed.
+                    mWaiting = true;
+                    if (next > mCursor.get() && mRunning) {
+                        LockSupport.park(this);
+                    }
+                    mWaiting = false;
+                    continue;
+                }
+                long skipTo = next;
+                if (mPolicy == Policy.COALESCE) {
+                    skipTo = cursor;
+                } else if (mPolicy == Policy.DROP_OLDEST) {
+                    skipTo = Math.max(next, cursor - mDepth + 1);
+                }
+                if (skipTo > next) {
+                    next = skipTo;
+                    mSequence = next;
+                }
+
+                int slot = (int) next & mMask;
+                long before = mSequences.get(slot);
+                ScanSnapshot snapshot = mEntries.get(slot);
+                boolean rejected = mRejected != null && mRejected.get(slot) == next;
+                long after = mSequences.get(slot);
+                if (before != next || after != next) {
+                    long oldest = mCursor.get() - mCapacity + 1;
+                    next = Math.max(next + 1, oldest);
+                    mSequence = next;
+                    continue;
+                }
+                if (!rejected) {
+                    Tracer.begin(mName);
+                    try {
+                        mConsumer.onScan(snapshot, next);
+                    } catch (RuntimeException e) {
+                        // One bad scan does not stop the consumer; it still counts as consumed.
+                        e.printStackTrace();
+                    } finally {
+                        Tracer.end();
+                    }
+                    mConsumed++;
+                }
+                mSequence = ++next;
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package mili.wifiscanner;
+
+/**
+ * An immutable snapshot of one Wi-Fi scan: the time it was delivered and, per AP, the packed
+ * MAC address, the RSSI and optionally the SSID.
+ * <p>
+ * Snapshots never change after construction, so they can be handed to any number of threads
+ * without copying. The arrays passed to the constructor are owned by the snapshot and must not
+ * be modified afterwards.
+ * <p>
+ * Every snapshot has a content hash over its APs, independent of their order, so a result set
+ * the platform delivers again unchanged is recognized in O(APs) without comparing snapshots.
+ */
+public final class ScanSnapshot {
+    private final long mTimestamp;
+    private final long[] mMacs;
+    private final byte[] mRssi;
+    private final String[] mSsids;
+    private final long mContentHash;
+    private final String mLabel;
+    private final boolean mRepeat;
+    private final boolean mTraining;
+
+    /**
+     * @param timestamp Wall clock time of the scan, in milliseconds.
+     * @param macs Packed MAC addresses, see {@link #packMac}.
+     * @param rssi RSSI of every AP, in dBm.
+     * @param ssids SSID of every AP, or null if not known.
+     */
+    public ScanSnapshot(long timestamp, long[] macs, byte[] rssi, String[] ssids) {
+        this(timestamp, macs, rssi, ssids, hashOf(macs, rssi));
+    }
+
+    /**
+     * @param contentHash Hash of the APs, for sources that know more about them than the
+     *                    snapshot holds. Sum the {@link #hashAp} of every AP.
+     */
+    public ScanSnapshot(long timestamp, long[] macs, byte[] rssi, String[] ssids,
+                        long contentHash) {
+        this(timestamp, macs, rssi, ssids, contentHash, null, false, false);
+        if (macs.length != rssi.length || (ssids != null && ssids.length != macs.length)) {
+            throw new IllegalArgumentException("AP arrays differ in length");
+        }
+    }
+
+    private ScanSnapshot(long timestamp, long[] macs, byte[] rssi, String[] ssids,
+                         long contentHash, String label, boolean repeat, boolean training) {
+        mTimestamp = timestamp;
+        mMacs = macs;
+        mRssi = rssi;
+        mSsids = ssids;
+        mContentHash = contentHash;
+        mLabel = label;
+        mRepeat = repeat;
+        mTraining = training;
+    }
+
+    /**
+     * Returns a snapshot of the same scan carrying the given label, e.g. the room it was taken
+     * in. The AP arrays are shared, not copied.
+     */
+    public ScanSnapshot withLabel(String label) {
+        return new ScanSnapshot(mTimestamp, mMacs, mRssi, mSsids, mContentHash, label, mRepeat,
+                mTraining);
+    }
+
+    /**
+     * Returns a snapshot of the same scan marked as a repeat of the previous one, i.e. without
+     * any new readings. The AP arrays are shared, not copied.
+     */
+    public ScanSnapshot asRepeat() {
+        return new ScanSnapshot(mTimestamp, mMacs, mRssi, mSsids, mContentHash, mLabel, true,
+                mTraining);
+    }
+
+    /**
+     * Returns a snapshot of the same scan marked as taken for training, i.e. its label is the
+     * true location. The AP arrays are shared, not copied.
+     */
+    public ScanSnapshot asTraining() {
+        return new ScanSnapshot(mTimestamp, mMacs, mRssi, mSsids, mContentHash, mLabel, mRepeat,
+                true);
+    }
+
+    /**
+     * Returns the label attached with {@link #withLabel}, or null.
+     */
+    public String getLabel() {
+        return mLabel;
+    }
+
+    /**
+     * Returns whether the snapshot was marked with {@link #asRepeat}.
+     */
+    public boolean isRepeat() {
+        return mRepeat;
+    }
+
+    /**
+     * Returns whether the snapshot was marked with {@link #asTraining}.
+     */
+    public boolean isTraining() {
+        return mTraining;
+    }
+
+    /**
+     * Returns the hash over all APs of the scan. Equal scans have equal hashes whatever the
+     * order of their APs.
+     */
+    public long getContentHash() {
+        return mContentHash;
+    }
+
+    public long getTimestamp() {
+        return mTimestamp;
+    }
+
+    /**
+     * Returns the number of APs in the scan.
+     */
+    public int size() {
+        return mMacs.length;
+    }
+
+    public long macAt(int i) {
+        return mMacs[i];
+    }
+
+    public int rssiAt(int i) {
+        return mRssi[i];
+    }
+
+    /**
+     * Returns the SSID of the AP, or null if the source did not provide SSIDs.
+     */
+    public String ssidAt(int i) {
+        return mSsids == null ? null : mSsids[i];
+    }
+
+    /**
+     * Clamps an RSSI to the range that fits into the snapshot.
+     */
+    public static byte toRssiByte(int rssi) {
+        return (byte) Math.max(Byte.MIN_VALUE, Math.min(Byte.MAX_VALUE, rssi));
+    }
+
+    /**
+     * Packs a MAC address of the form "aa:bb:cc:dd:ee:ff" into the low 48 bits of a long.
+     * Returns -1 if the address cannot be parsed.
+     */
+    public static long packMac(String mac) {
+        if (mac == null || mac.length() != 17) {
+            return -1;
+        }
+        long packed = 0;
+        for (int i = 0; i < 17; i++) {
+            char c = mac.charAt(i);
+            if (i % 3 == 2) {
+                if (c != ':') {
+                    return -1;
+                }
+                continue;
+            }
+            int digit = Character.digit(c, 16);
+            if (digit < 0) {
+                return -1;
+            }
+            packed = (packed << 4) | digit;
+        }
+        return packed;
+    }
+
+    /**
+     * Hashes one AP of a scan.
+     *
+     * @param seen When the AP was last seen, in any unit, or 0 if not known.
+     */
+    public static long hashAp(long mac, int rssi, long seen) {
+        // SplitMix64 finalizer, so that similar readings give unrelated hashes.
+        long h = mac ^ ((long) rssi << 48) ^ (seen * 0x9E3779B97F4A7C15L);
+        h = (h ^ (h >>> 30)) * 0xBF58476D1CE4E5B9L;
+        h = (h ^ (h >>> 27)) * 0x94D049BB133111EBL;
+        return h ^ (h >>> 31);
+    }
+
+    private static long hashOf(long[] macs, byte[] rssi) {
+        long hash = 0;
+        for (int i = 0; i < Math.min(macs.length, rssi.length); i++) {
+            hash += hashAp(macs[i], rssi[i], 0);
+        }
+        return hash;
+    }
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    /**
+     * Formats a packed MAC address as "aa:bb:cc:dd:ee:ff".
+     */
+    public static String formatMac(long mac) {
+        char[] out = new char[17];
+        for (int i = 0, shift = 44; i < 17; i++) {
+            if (i % 3 == 2) {
+                out[i] = ':';
+            } else {
+                out[i] = HEX_DIGITS[(int) (mac >>> shift) & 0xf];
+                shift -= 4;
+            }
+        }
+        return new String(out);
+    }
+}
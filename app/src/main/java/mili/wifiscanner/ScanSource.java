@@ -0,0 +1,40 @@
+package mili.wifiscanner;
+
+/**
+ * A source of Wi-Fi scans, delivered as {@link ScanSnapshot}s.
+ * <p>
+ * Implementations exist for the device radio ({@link WifiManagerScanSource}), for replaying
+ * logs written by {@link DataWriter} ({@link ReplayScanSource}) and for generating synthetic
+ * scans ({@link SyntheticScanSource}). The latter two do not depend on Android and can drive
+ * the pipeline on a plain JVM.
+ */
+public interface ScanSource {
+
+    /**
+     * Receives the scans of a source. Called on the thread that produced the scan.
+     */
+    interface Listener {
+        void onScanAvailable(ScanSnapshot snapshot);
+    }
+
+    void setListener(Listener listener);
+
+    /**
+     * Starts delivering scans. Sources that scan on their own begin doing so; the others only
+     * get ready to serve {@link #requestScan()}.
+     */
+    void start();
+
+    /**
+     * Stops delivering scans.
+     */
+    void stop();
+
+    /**
+     * Asks for one scan. The result, if any, arrives through the listener later or before this
+     * call returns, depending on the source.
+     *
+     * @return false if the request was rejected, e.g. because the platform throttles scans.
+     */
+    boolean requestScan();
+}
@@ -0,0 +1,230 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+
+/**
+ * A uniform grid over line segments, to find the segments that may intersect a rectangle.
+ * <p>
+ * Segments are numbered in the order they are added. Each is listed in the cells it crosses,
+ * found by walking the grid along the segment, so adding one touches at most about
+ * columns + rows cells however long or diagonal it is, and a {@link #query} only visits the
+ * cells overlapping the rectangle. Parts of segments outside the grid bounds are listed in the
+ * nearest border cells. A segment listed in several cells is reported once, using a
+ * per-segment stamp of the last query that saw it. Results are written to a buffer owned by the
+ * grid, so queries do not allocate once it has grown. Not thread safe.
+ */
+public class SegmentGrid {
+    private static final int INITIAL_CELL_CAPACITY = 4;
+    private static final int INITIAL_SEGMENTS = 64;
+
+    private final float mMinX;
+    private final float mMinY;
+    private final int mColumns;
+    private final int mRows;
+    private final float mCellsPerX;
+    private final float mCellsPerY;
+
+    // Segment indices listed in each cell
+    private final int[][] mCells;
+    private final int[] mCellSizes;
+
+    // Per segment: bounding box as minX, minY, maxX, maxY, and the last query stamp
+    private float[] mBounds = new float[INITIAL_SEGMENTS * 4];
+    private int[] mStamps = new int[INITIAL_SEGMENTS];
+    private int mSize;
+    private int mStamp;
+
+    private int[] mResults = new int[INITIAL_SEGMENTS];
+    // Where a segment enters or leaves the grid bounds, as fractions of its length
+    private final float[] mBreaks = new float[6];
+
+    public SegmentGrid(float minX, float minY, float maxX, float maxY, int columns, int rows) {
+        mMinX = minX;
+        mMinY = minY;
+        mColumns = columns;
+        mRows = rows;
+        mCellsPerX = columns / (maxX - minX);
+        mCellsPerY = rows / (maxY - minY);
+        mCells = new int[columns * rows][];
+        mCellSizes = new int[columns * rows];
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Adds the segment from (x0, y0) to (x1, y1), which gets the index {@link #size} had before.
+     */
+    public void add(float x0, float y0, float x1, float y1) {
+        if (mSize == mStamps.length) {
+            mStamps = Arrays.copyOf(mStamps, mSize * 2);
+            mBounds = Arrays.copyOf(mBounds, mSize * 2 * 4);
+        }
+        int segment = mSize++;
+        float minX = Math.min(x0, x1);
+        float minY = Math.min(y0, y1);
+        float maxX = Math.max(x0, x1);
+        float maxY = Math.max(y0, y1);
+        mBounds[segment * 4] = minX;
+        mBounds[segment * 4 + 1] = minY;
+        mBounds[segment * 4 + 2] = maxX;
+        mBounds[segment * 4 + 3] = maxY;
+        mStamps[segment] = mStamp;
+
+        // In cell units from the corner of the grid
+        float gx0 = (x0 - mMinX) * mCellsPerX;
+        float gy0 = (y0 - mMinY) * mCellsPerY;
+        float gx1 = (x1 - mMinX) * mCellsPerX;
+        float gy1 = (y1 - mMinY) * mCellsPerY;
+        // Between the breaks the segment is either inside the bounds or outside on a fixed side
+        // in each axis, so clamping each piece into the bounds keeps it straight.
+        int breaks = 0;
+        mBreaks[breaks++] = 0;
+        breaks = addBreak(breaks, gx0, gx1, 0);
+        breaks = addBreak(breaks, gx0, gx1, mColumns);
+        breaks = addBreak(breaks, gy0, gy1, 0);
+        breaks = addBreak(breaks, gy0, gy1, mRows);
+        mBreaks[breaks++] = 1;
+        Arrays.sort(mBreaks, 0, breaks);
+        for (int i = 1; i < breaks; i++) {
+            float t0 = mBreaks[i - 1];
+            float t1 = mBreaks[i];
+            walk(segment,
+                    clamp(gx0 + (gx1 - gx0) * t0, mColumns), clamp(gy0 + (gy1 - gy0) * t0, mRows),
+                    clamp(gx0 + (gx1 - gx0) * t1, mColumns), clamp(gy0 + (gy1 - gy0) * t1, mRows));
+        }
+    }
+
+    /**
+     * Adds the fraction of the way from a to b where the value crosses the edge, if it does.
+     */
+    private int addBreak(int breaks, float a, float b, float edge) {
+        if ((a < edge && b > edge) || (a > edge && b < edge)) {
+            mBreaks[breaks++] = (edge - a) / (b - a);
+        }
+        return breaks;
+    }
+
+    /**
+     * Lists the segment in the cells crossed by the line from (gx0, gy0) to (gx1, gy1), in cell
+     * units within the bounds, stepping to the next column or row the line reaches first.
+     */
+    private void walk(int segment, float gx0, float gy0, float gx1, float gy1) {
+        int column = clamp((int) Math.floor(gx0), mColumns);
+        int row = clamp((int) Math.floor(gy0), mRows);
+        int lastColumn = clamp((int) Math.floor(gx1), mColumns);
+        int lastRow = clamp((int) Math.floor(gy1), mRows);
+        float dx = gx1 - gx0;
+        float dy = gy1 - gy0;
+        int stepX = lastColumn > column ? 1 : -1;
+        int stepY = lastRow > row ? 1 : -1;
+        // Fractions of the line at which it crosses the next column and row boundary
+        float tDeltaX = Math.abs(1 / dx);
+        float tDeltaY = Math.abs(1 / dy);
+        float tMaxX = ((stepX > 0 ? column + 1 : column) - gx0) / dx;
+        float tMaxY = ((stepY > 0 ? row + 1 : row) - gy0) / dy;
+        addToCell(row * mColumns + column, segment);
+        // Exactly one step per column and row between the ends, so rounding cannot overshoot.
+        for (int steps = Math.abs(lastColumn - column) + Math.abs(lastRow - row); steps > 0;
+                steps--) {
+            if (row == lastRow || (column != lastColumn && tMaxX < tMaxY)) {
+                column += stepX;
+                tMaxX += tDeltaX;
+            } else {
+                row += stepY;
+                tMaxY += tDeltaY;
+            }
+            addToCell(row * mColumns + column, segment);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(mCellSizes, 0);
+        mSize = 0;
+    }
+
+    /**
+     * Finds the segments that may intersect the rectangle: all that do, and possibly some that
+     * pass nearby, but only ones whose bounding box intersects it. Their indices are in the
+     * first entries of {@link #getResults}, in no particular order.
+     *
+     * @return The number of segments found.
+     */
+    public int query(float left, float top, float right, float bottom) {
+        float minX = Math.min(left, right);
+        float minY = Math.min(top, bottom);
+        float maxX = Math.max(left, right);
+        float maxY = Math.max(top, bottom);
+        if (++mStamp == 0) {
+            // The stamp wrapped around, so old stamps could match again.
+            Arrays.fill(mStamps, -1);
+            mStamp = 1;
+        }
+
+        int found = 0;
+        int lastColumn = columnOf(maxX);
+        int lastRow = rowOf(maxY);
+        for (int row = rowOf(minY); row <= lastRow; row++) {
+            for (int column = columnOf(minX); column <= lastColumn; column++) {
+                int cell = row * mColumns + column;
+                int[] segments = mCells[cell];
+                for (int i = 0; i < mCellSizes[cell]; i++) {
+                    int segment = segments[i];
+                    if (mStamps[segment] == mStamp) {
+                        continue;
+                    }
+                    mStamps[segment] = mStamp;
+                    int b = segment * 4;
+                    if (mBounds[b] > maxX || mBounds[b + 2] < minX
+                            || mBounds[b + 1] > maxY || mBounds[b + 3] < minY) {
+                        continue;
+                    }
+                    if (found == mResults.length) {
+                        mResults = Arrays.copyOf(mResults, found * 2);
+                    }
+                    mResults[found++] = segment;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Returns the buffer holding the results of the last {@link #query}. It is reused by the
+     * next query.
+     */
+    public int[] getResults() {
+        return mResults;
+    }
+
+    private void addToCell(int cell, int segment) {
+        int[] segments = mCells[cell];
+        // The segment being added is the newest, so it can only be the last of the cell.
+        if (mCellSizes[cell] > 0 && segments[mCellSizes[cell] - 1] == segment) {
+            return;
+        }
+        if (segments == null) {
+            segments = mCells[cell] = new int[INITIAL_CELL_CAPACITY];
+        } else if (mCellSizes[cell] == segments.length) {
+            segments = mCells[cell] = Arrays.copyOf(segments, segments.length * 2);
+        }
+        segments[mCellSizes[cell]++] = segment;
+    }
+
+    private int columnOf(float x) {
+        return clamp((int) Math.floor((x - mMinX) * mCellsPerX), mColumns);
+    }
+
+    private int rowOf(float y) {
+        return clamp((int) Math.floor((y - mMinY) * mCellsPerY), mRows);
+    }
+
+    private static int clamp(int index, int count) {
+        return Math.max(0, Math.min(count - 1, index));
+    }
+
+    private static float clamp(float value, int count) {
+        return Math.max(0, Math.min(count, value));
+    }
+}
@@ -0,0 +1,170 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+
+/**
+ * Decimated copies of a set of line segments, one per tolerance, for drawing zoomed out views
+ * of long paths.
+ * <p>
+ * Level 0 has the coarsest tolerance and every next level half of the one before. At each
+ * level both ends of a segment are snapped to square buckets the size of the tolerance, and a
+ * segment is only kept if no kept segment has its ends in the same two buckets, so at most one
+ * segment is drawn for every pair of buckets however many were recorded there. A kept segment
+ * keeps its exact coordinates, so it is off by less than the tolerance from the ones it stands
+ * for. Each level has its own {@link SegmentGrid} for culling, and all levels are updated
+ * incrementally on {@link #add}. Ends outside the bounds are snapped to the border buckets.
+ * Not thread safe.
+ */
+public class SegmentPyramid {
+    private static final int INITIAL_KEYS = 64;
+    // Bucket coordinates are packed into 16 bits each, and all ones is never a valid key
+    private static final int MAX_BUCKETS = 1 << 16;
+
+    private final float mMinX;
+    private final float mMinY;
+    private final float mMaxX;
+    private final float mMaxY;
+    private final Level[] mLevels;
+
+    private static class Level {
+        final float tolerance;
+        final FloatSeries segments = new FloatSeries();
+        final FloatSeries segmentsView = segments.asReadOnly();
+        final SegmentGrid grid;
+        // Open-addressing set of packed bucket pairs, -1 for empty slots
+        long[] keys = newKeys(INITIAL_KEYS);
+        int numKeys;
+
+        Level(float tolerance, SegmentGrid grid) {
+            this.tolerance = tolerance;
+            this.grid = grid;
+        }
+    }
+
+    /**
+     * @param coarsestTolerance Bucket size of level 0, in the units of the segments.
+     * @param numLevels         Number of levels, each with half the tolerance of the previous.
+     * @param gridSize          Number of columns and rows of the culling grid of each level.
+     */
+    public SegmentPyramid(float minX, float minY, float maxX, float maxY,
+                          float coarsestTolerance, int numLevels, int gridSize) {
+        mMinX = minX;
+        mMinY = minY;
+        mMaxX = maxX;
+        mMaxY = maxY;
+        mLevels = new Level[numLevels];
+        float tolerance = coarsestTolerance;
+        for (int i = 0; i < numLevels; i++) {
+            if (Math.max(maxX - minX, maxY - minY) / tolerance >= MAX_BUCKETS - 1) {
+                throw new IllegalArgumentException("Too many levels for the bounds: " + numLevels);
+            }
+            mLevels[i] = new Level(tolerance,
+                    new SegmentGrid(minX, minY, maxX, maxY, gridSize, gridSize));
+            tolerance /= 2;
+        }
+    }
+
+    public int getNumLevels() {
+        return mLevels.length;
+    }
+
+    public float getTolerance(int level) {
+        return mLevels[level].tolerance;
+    }
+
+    /**
+     * Returns the kept segments of a level, four values per segment, in a read-only view.
+     */
+    public FloatSeries getSegments(int level) {
+        return mLevels[level].segmentsView;
+    }
+
+    /**
+     * Returns the culling grid of a level, indexing the segments of {@link #getSegments}.
+     */
+    public SegmentGrid getGrid(int level) {
+        return mLevels[level].grid;
+    }
+
+    /**
+     * Returns the coarsest level whose tolerance is below maxTolerance, or -1 if no level is
+     * that fine.
+     */
+    public int levelFor(float maxTolerance) {
+        for (int i = 0; i < mLevels.length; i++) {
+            if (mLevels[i].tolerance < maxTolerance) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public void add(float x0, float y0, float x1, float y1) {
+        for (Level level : mLevels) {
+            long key = (long) bucketOf(x0, mMinX, mMaxX, level.tolerance) << 48
+                    | (long) bucketOf(y0, mMinY, mMaxY, level.tolerance) << 32
+                    | (long) bucketOf(x1, mMinX, mMaxX, level.tolerance) << 16
+                    | bucketOf(y1, mMinY, mMaxY, level.tolerance);
+            if (addKey(level, key)) {
+                level.segments.add(x0, y0);
+                level.segments.add(x1, y1);
+                level.grid.add(x0, y0, x1, y1);
+            }
+        }
+    }
+
+    public void clear() {
+        for (Level level : mLevels) {
+            level.segments.clear();
+            level.grid.clear();
+            level.keys = newKeys(INITIAL_KEYS);
+            level.numKeys = 0;
+        }
+    }
+
+    private static int bucketOf(float value, float min, float max, float tolerance) {
+        float clamped = Math.max(min, Math.min(max, value));
+        return Math.min(MAX_BUCKETS - 1, (int) ((clamped - min) / tolerance));
+    }
+
+    /**
+     * Adds the key to the set of the level.
+     *
+     * @return False if it was already there.
+     */
+    private static boolean addKey(Level level, long key) {
+        if ((level.numKeys + 1) * 2 > level.keys.length) {
+            long[] keys = level.keys;
+            level.keys = newKeys(keys.length * 2);
+            for (long k : keys) {
+                if (k != -1) {
+                    insert(level.keys, k);
+                }
+            }
+        }
+        if (!insert(level.keys, key)) {
+            return false;
+        }
+        level.numKeys++;
+        return true;
+    }
+
+    private static boolean insert(long[] keys, long key) {
+        int mask = keys.length - 1;
+        int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+        while (keys[slot] != -1) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        return true;
+    }
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, -1);
+        return keys;
+    }
+}
@@ -0,0 +1,87 @@
+package mili.wifiscanner;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * A small line chart of the last RSSI readings of one AP, read from a {@link RssiHistoryStore}.
+ * <p>
+ * The view keeps one reading and one line buffer, sized for the history length of the store,
+ * and reuses them for every AP it is bound to and every frame, so binding and drawing do not
+ * allocate.
+ */
+public class SparklineView extends View {
+    // RSSI range mapped to the height of the view, in dBm
+    private static final int RSSI_MIN = -100;
+    private static final int RSSI_MAX = -30;
+
+    private final Paint mLinePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    private RssiHistoryStore mStore;
+    private long mMac = -1;
+    private int[] mReadings = new int[0];
+    private float[] mLines = new float[0];
+
+    public SparklineView(Context context) {
+        this(context, null);
+    }
+
+    public SparklineView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        mLinePaint.setStyle(Paint.Style.STROKE);
+        mLinePaint.setStrokeWidth(2 * getResources().getDisplayMetrics().density);
+        mLinePaint.setColor(context.getColor(R.color.colorSecondaryVariant));
+    }
+
+    /**
+     * Shows the history of the AP with the given packed MAC, or nothing for -1.
+     */
+    public void setHistory(RssiHistoryStore store, long mac) {
+        if (store != mStore) {
+            mStore = store;
+            mReadings = new int[store == null ? 0 : store.getLength()];
+            mLines = new float[Math.max(0, mReadings.length - 1) * 4];
+        }
+        mMac = mac;
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (mStore == null || mMac < 0) {
+            return;
+        }
+        int count = mStore.copyHistory(mMac, mReadings);
+        if (count < 2) {
+            return;
+        }
+        float left = getPaddingLeft();
+        float top = getPaddingTop();
+        float width = getWidth() - left - getPaddingRight();
+        float height = getHeight() - top - getPaddingBottom();
+        // Readings are spread over the whole history length, so the newest is always at the
+        // right edge and the slope does not depend on how many readings there are yet.
+        float step = width / (mReadings.length - 1);
+        float x = left + width - (count - 1) * step;
+        float y = yOf(mReadings[0], top, height);
+        for (int i = 1; i < count; i++) {
+            int j = (i - 1) * 4;
+            mLines[j] = x;
+            mLines[j + 1] = y;
+            x += step;
+            y = yOf(mReadings[i], top, height);
+            mLines[j + 2] = x;
+            mLines[j + 3] = y;
+        }
+        canvas.drawLines(mLines, 0, (count - 1) * 4, mLinePaint);
+    }
+
+    private static float yOf(int rssi, float top, float height) {
+        float fraction = (float) (Math.max(RSSI_MIN, Math.min(RSSI_MAX, rssi)) - RSSI_MIN)
+                / (RSSI_MAX - RSSI_MIN);
+        return top + height * (1 - fraction);
+    }
+}
@@ -0,0 +1,80 @@
+package mili.wifiscanner;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates scans of a synthetic site for load testing without radios.
+ * <p>
+ * Each AP gets a random mean RSSI per room. A scan reports every AP whose noisy reading in the
+ * current room is above the receiver sensitivity and is labeled with the index of the room. The
+ * device stays in a room for a while and then moves to a random other one.
+ */
+public class SyntheticScanSource extends PacedScanSource {
+    private static final int SENSITIVITY = -95;
+    private static final int STRONGEST = -30;
+    // Locally administered unicast prefix 02:00:.. for the generated BSSIDs
+    private static final long MAC_PREFIX = 0x020000000000L;
+
+    private final int mNumAps;
+    private final int mNumRooms;
+    private final double mNoise;
+    private final double mMoveProbability;
+    private final Random mRandom;
+    private final float[] mMeans;
+
+    private final long[] mMacBuffer;
+    private final byte[] mRssiBuffer;
+    private int mRoom;
+
+    /**
+     * @param numAps Number of APs of the site.
+     * @param numRooms Number of rooms of the site.
+     * @param noise Standard deviation of the RSSI noise, in dB.
+     * @param moveProbability Probability of moving to another room before a scan.
+     * @param seed Seed of the random generator, for reproducible runs.
+     */
+    public SyntheticScanSource(int numAps, int numRooms, double noise,
+                               double moveProbability, long seed) {
+        mNumAps = numAps;
+        mNumRooms = numRooms;
+        mNoise = noise;
+        mMoveProbability = moveProbability;
+        mRandom = new Random(seed);
+        mMeans = new float[numRooms * numAps];
+        for (int i = 0; i < mMeans.length; i++) {
+            // Most APs are far away from most rooms.
+            double u = mRandom.nextDouble();
+            mMeans[i] = (float) (SENSITIVITY - 10 + u * u * (STRONGEST - SENSITIVITY + 10));
+        }
+        mMacBuffer = new long[numAps];
+        mRssiBuffer = new byte[numAps];
+    }
+
+    /**
+     * Returns the BSSID of the i-th generated AP.
+     */
+    public static String bssidOf(int ap) {
+        return ScanSnapshot.formatMac(MAC_PREFIX | ap);
+    }
+
+    @Override
+    protected ScanSnapshot next() {
+        if (mNumRooms > 1 && mRandom.nextDouble() < mMoveProbability) {
+            mRoom = (mRoom + 1 + mRandom.nextInt(mNumRooms - 1)) % mNumRooms;
+        }
+        int base = mRoom * mNumAps;
+        int size = 0;
+        for (int ap = 0; ap < mNumAps; ap++) {
+            double rssi = mMeans[base + ap] + mRandom.nextGaussian() * mNoise;
+            if (rssi >= SENSITIVITY) {
+                mMacBuffer[size] = MAC_PREFIX | ap;
+                mRssiBuffer[size] = ScanSnapshot.toRssiByte((int) Math.round(rssi));
+                size++;
+            }
+        }
+        return new ScanSnapshot(System.currentTimeMillis(),
+                Arrays.copyOf(mMacBuffer, size),
+                Arrays.copyOf(mRssiBuffer, size), null).withLabel(String.valueOf(mRoom));
+    }
+}
@@ -0,0 +1,116 @@
+package mili.wifiscanner;
+
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+import java.util.ArrayDeque;
+
+/**
+ * A memory-bounded LRU cache of square bitmap tiles, keyed by a packed tile address.
+ * <p>
+ * The cache is bounded by the bytes of its bitmaps. Bitmaps of evicted or replaced tiles go to
+ * a small pool and are handed out again by {@link #obtain}, so panning over new tiles reuses
+ * memory instead of allocating a bitmap per tile. Tiles are read and stored on the main thread,
+ * since the cache may recycle the bitmap of a tile it drops; {@link #obtain} may be called
+ * from any thread.
+ */
+public class TileCache {
+    private static final int POOL_SIZE = 8;
+
+    private final int mTileSize;
+    private final LruCache<Long, Tile> mTiles;
+    private final ArrayDeque<Bitmap> mPool = new ArrayDeque<>();
+
+    /**
+     * A cached tile: its bitmap and a stamp chosen by the owner, e.g. the version of the data
+     * it was drawn from.
+     */
+    public static class Tile {
+        public final Bitmap bitmap;
+        public final int stamp;
+
+        public Tile(Bitmap bitmap, int stamp) {
+            this.bitmap = bitmap;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * @param maxBytes Maximum size of the cached bitmaps, in bytes.
+     * @param tileSize Width and height of the tiles, in pixels.
+     */
+    public TileCache(int maxBytes, int tileSize) {
+        mTileSize = tileSize;
+        mTiles = new LruCache<Long, Tile>(maxBytes) {
+            @Override
+            protected int sizeOf(Long key, Tile tile) {
+                return tile.bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, Long key, Tile oldTile, Tile newTile) {
+                if (newTile == null || newTile.bitmap != oldTile.bitmap) {
+                    release(oldTile.bitmap);
+                }
+            }
+        };
+    }
+
+    /**
+     * Packs a tile address into a key: a level of up to 255 and columns and rows of up to 2^24.
+     */
+    public static long keyOf(int level, int column, int row) {
+        return (long) level << 48 | (long) (column & 0xFFFFFF) << 24 | (row & 0xFFFFFF);
+    }
+
+    public int getTileSize() {
+        return mTileSize;
+    }
+
+    public Tile get(long key) {
+        return mTiles.get(key);
+    }
+
+    public void put(long key, Tile tile) {
+        mTiles.put(key, tile);
+    }
+
+    /**
+     * Returns a bitmap for a new tile, from the pool if it has one. Its content is undefined.
+     */
+    public Bitmap obtain() {
+        synchronized (mPool) {
+            Bitmap bitmap = mPool.poll();
+            if (bitmap != null) {
+                return bitmap;
+            }
+        }
+        return Bitmap.createBitmap(mTileSize, mTileSize, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns a bitmap that was obtained but not put into the cache.
+     */
+    public void release(Bitmap bitmap) {
+        synchronized (mPool) {
+            if (mPool.size() < POOL_SIZE) {
+                mPool.push(bitmap);
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * Drops all tiles and pooled bitmaps.
+     */
+    public void clear() {
+        mTiles.evictAll();
+        synchronized (mPool) {
+            for (Bitmap bitmap : mPool) {
+                bitmap.recycle();
+            }
+            mPool.clear();
+        }
+    }
+}
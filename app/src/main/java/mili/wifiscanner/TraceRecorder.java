@@ -0,0 +1,175 @@
+package mili.wifiscanner;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link Tracer.Backend} that records sections into a preallocated ring of events, for
+ * replay runs on the JVM.
+ * <p>
+ * Every begin and end is one event of parallel primitive arrays: time, thread, phase and the
+ * id of the interned section name. Threads claim slots with one atomic increment, so recording
+ * neither locks nor allocates after a name was seen once. When the ring is full the oldest
+ * events are overwritten. {@link #writeChromeJson} exports the sections in the Chrome trace
+ * event format, which chrome://tracing and Perfetto open; it should be called once the traced
+ * threads are idle, as events written concurrently may be torn.
+ */
+public class TraceRecorder implements Tracer.Backend {
+    private static final byte BEGIN = 'B';
+    private static final byte END = 'E';
+
+    private final int mCapacity;
+    private final long[] mTimes;
+    private final long[] mThreads;
+    private final int[] mNames;
+    private final byte[] mPhases;
+    private final AtomicLong mNext = new AtomicLong();
+    private final long mStartNanos = System.nanoTime();
+
+    private final Map<String, Integer> mNameIds = new ConcurrentHashMap<>();
+    private final List<String> mNameList = new ArrayList<>();
+
+    public TraceRecorder(int capacity) {
+        mCapacity = capacity;
+        mTimes = new long[capacity];
+        mThreads = new long[capacity];
+        mNames = new int[capacity];
+        mPhases = new byte[capacity];
+    }
+
+    @Override
+    public void begin(String name) {
+        record(BEGIN, idOf(name));
+    }
+
+    @Override
+    public void end() {
+        record(END, -1);
+    }
+
+    /**
+     * Returns the number of events recorded, including overwritten ones.
+     */
+    public long getRecorded() {
+        return mNext.get();
+    }
+
+    public void clear() {
+        mNext.set(0);
+    }
+
+    private void record(byte phase, int name) {
+        long time = System.nanoTime();
+        int slot = (int) (mNext.getAndIncrement() % mCapacity);
+        mTimes[slot] = time;
+        mThreads[slot] = Thread.currentThread().getId();
+        mNames[slot] = name;
+        mPhases[slot] = phase;
+    }
+
+    private int idOf(String name) {
+        Integer id = mNameIds.get(name);
+        if (id != null) {
+            return id;
+        }
+        synchronized (mNameList) {
+            id = mNameIds.get(name);
+            if (id == null) {
+                id = mNameList.size();
+                mNameList.add(name);
+                mNameIds.put(name, id);
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Writes the sections still in the ring as a Chrome trace event JSON document. A section
+     * that ended becomes one complete event with its duration, in the order the sections ended.
+     * A section that has not ended yet follows as a begin event. An end whose begin was
+     * overwritten is skipped, since it has no start.
+     */
+    public void writeChromeJson(Writer writer) throws IOException {
+        long next = mNext.get();
+        long first = Math.max(0, next - mCapacity);
+        // Per thread, the events of the sections that are open at that point
+        Map<Long, ArrayDeque<Long>> open = new HashMap<>();
+        String[] names;
+        synchronized (mNameList) {
+            names = mNameList.toArray(new String[0]);
+        }
+
+        writer.write("{\"traceEvents\":[");
+        StringBuilder event = new StringBuilder();
+        boolean firstEvent = true;
+        for (long i = first; i < next; i++) {
+            int slot = (int) (i % mCapacity);
+            long thread = mThreads[slot];
+            ArrayDeque<Long> stack = open.get(thread);
+            if (mPhases[slot] == BEGIN) {
+                if (stack == null) {
+                    stack = new ArrayDeque<>();
+                    open.put(thread, stack);
+                }
+                stack.push(i);
+            } else if (stack != null && !stack.isEmpty()) {
+                int begin = (int) (stack.pop() % mCapacity);
+                appendEvent(event, firstEvent, names[mNames[begin]], mTimes[begin],
+                        mTimes[slot] - mTimes[begin], thread);
+                writer.write(event.toString());
+                firstEvent = false;
+            }
+        }
+        for (Map.Entry<Long, ArrayDeque<Long>> entry : open.entrySet()) {
+            Iterator<Long> begins = entry.getValue().descendingIterator();
+            while (begins.hasNext()) {
+                int begin = (int) (begins.next() % mCapacity);
+                appendEvent(event, firstEvent, names[mNames[begin]], mTimes[begin], -1,
+                        entry.getKey());
+                writer.write(event.toString());
+                firstEvent = false;
+            }
+        }
+        writer.write("]}\n");
+        writer.flush();
+    }
+
+    /**
+     * Replaces the content of event with one trace event: a complete event, or a begin event
+     * if the duration is negative.
+     */
+    private void appendEvent(StringBuilder event, boolean first, String name, long time,
+                             long duration, long thread) {
+        event.setLength(0);
+        if (!first) {
+            event.append(",\n");
+        }
+        event.append("{\"ph\":\"").append(duration < 0 ? (char) BEGIN : 'X')
+                .append("\",\"name\":\"");
+        appendEscaped(event, name);
+        // Chrome expects microseconds.
+        event.append("\",\"ts\":").append((time - mStartNanos) / 1000.0);
+        if (duration >= 0) {
+            event.append(",\"dur\":").append(duration / 1000.0);
+        }
+        event.append(",\"pid\":1,\"tid\":").append(thread).append('}');
+    }
+
+    private static void appendEscaped(StringBuilder out, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                out.append('\\');
+            }
+            out.append(c < ' ' ? ' ' : c);
+        }
+    }
+}
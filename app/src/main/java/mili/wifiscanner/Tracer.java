@@ -0,0 +1,71 @@
+package mili.wifiscanner;
+
+/**
+ * Begin/end hooks around the stages of the scan pipeline and of chart rendering.
+ * <p>
+ * The sections go to a pluggable {@link Backend}. On a device the default backend maps them to
+ * {@code android.os.Trace} sections, so they show up in systrace and Perfetto captures; on the
+ * JVM nothing is traced until a backend such as a {@link TraceRecorder} is installed. Sections
+ * must be ended on the thread that began them, innermost first.
+ */
+public final class Tracer {
+    /**
+     * Receives the sections.
+     */
+    public interface Backend {
+        void begin(String name);
+
+        void end();
+    }
+
+    private static final Backend NO_OP = new Backend() {
+        @Override
+        public void begin(String name) {
+        }
+
+        @Override
+        public void end() {
+        }
+    };
+
+    private static volatile Backend sBackend = defaultBackend();
+
+    private Tracer() {
+    }
+
+    public static void setBackend(Backend backend) {
+        sBackend = backend == null ? NO_OP : backend;
+    }
+
+    public static Backend getBackend() {
+        return sBackend;
+    }
+
+    public static void begin(String name) {
+        sBackend.begin(name);
+    }
+
+    public static void end() {
+        sBackend.end();
+    }
+
+    private static Backend defaultBackend() {
+        // The Android backend is only loaded on a device, where android.os.Trace exists.
+        if ("Dalvik".equals(System.getProperty("java.vm.name"))) {
+            return new AndroidTraceBackend();
+        }
+        return NO_OP;
+    }
+
+    private static class AndroidTraceBackend implements Backend {
+        @Override
+        public void begin(String name) {
+            android.os.Trace.beginSection(name);
+        }
+
+        @Override
+        public void end() {
+            android.os.Trace.endSection();
+        }
+    }
+}
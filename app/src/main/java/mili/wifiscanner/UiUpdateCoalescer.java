@@ -0,0 +1,83 @@
+package mili.wifiscanner;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Applies scans to the UI at most once per frame, or once per minimum interval, always with
+ * the latest scan.
+ * <p>
+ * Any thread may {@link #submit} scans at any rate. A submitted scan replaces the one waiting,
+ * and only the first submit after an update schedules a {@link Choreographer} frame callback,
+ * so the main thread gets at most one pending callback however fast scans arrive.
+ */
+public class UiUpdateCoalescer implements Choreographer.FrameCallback {
+    /**
+     * Applies a scan to the UI, on the main thread.
+     */
+    public interface Listener {
+        void onUiUpdate(ScanSnapshot snapshot);
+    }
+
+    private final Choreographer mChoreographer;
+    private final Listener mListener;
+    private final AtomicReference<ScanSnapshot> mLatest = new AtomicReference<>();
+    private final AtomicBoolean mScheduled = new AtomicBoolean();
+    private volatile long mMinIntervalNanos;
+    // Frame time of the last update, only used on the main thread
+    private long mLastUpdateNanos;
+
+    /**
+     * Must be created on the main thread.
+     */
+    public UiUpdateCoalescer(Listener listener) {
+        mChoreographer = Choreographer.getInstance();
+        mListener = listener;
+    }
+
+    /**
+     * Sets the minimum time between two updates, in milliseconds. With 0, the UI is updated
+     * at most once per frame.
+     */
+    public void setMinInterval(long millis) {
+        mMinIntervalNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    /**
+     * Queues the scan for the next update, replacing any scan that is waiting. May be called
+     * from any thread.
+     */
+    public void submit(ScanSnapshot snapshot) {
+        mLatest.set(snapshot);
+        if (mScheduled.compareAndSet(false, true)) {
+            // The Choreographer of the main thread accepts callbacks from any thread.
+            mChoreographer.postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Drops the waiting scan, if any.
+     */
+    public void cancel() {
+        mLatest.set(null);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        long wait = mLastUpdateNanos + mMinIntervalNanos - frameTimeNanos;
+        if (wait > 0) {
+            mChoreographer.postFrameCallbackDelayed(this, TimeUnit.NANOSECONDS.toMillis(wait));
+            return;
+        }
+        mScheduled.set(false);
+        ScanSnapshot snapshot = mLatest.getAndSet(null);
+        if (snapshot == null) {
+            return;
+        }
+        mLastUpdateNanos = frameTimeNanos;
+        mListener.onUiUpdate(snapshot);
+    }
+}
@@ -0,0 +1,114 @@
+package mili.wifiscanner;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.wifi.ScanResult;
+import android.net.wifi.WifiManager;
+import android.os.Build;
+
+import java.util.List;
+
+/**
+ * Scans with the device radio through {@link WifiManager}. Results are delivered on the main
+ * thread when the platform broadcasts {@link WifiManager#SCAN_RESULTS_AVAILABLE_ACTION}.
+ */
+public class WifiManagerScanSource implements ScanSource {
+    /**
+     * Scan requests a foreground app may issue per {@link #THROTTLE_WINDOW} while the
+     * platform throttles scans.
+     */
+    public static final int THROTTLE_MAX_SCANS = 4;
+    public static final long THROTTLE_WINDOW = 2 * 60 * 1000;
+    private static final LatencyHistogram REQUEST_TO_RESULT_TIME =
+            Metrics.histogram(Metrics.SCAN_REQUEST_TO_RESULT);
+
+    private final Context mContext;
+    private final WifiManager mWifiManager;
+    private final WifiScanReceiver mWifiScanReceiver = new WifiScanReceiver();
+    private Listener mListener;
+    private boolean mRegistered;
+    // System.nanoTime() of the last accepted scan request, or 0 when none is pending
+    private long mRequestTime;
+
+    public WifiManagerScanSource(Context context) {
+        mContext = context;
+        mWifiManager = (WifiManager) context.getSystemService(Context.WIFI_SERVICE);
+    }
+
+    @Override
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    public void start() {
+        if (!mRegistered) {
+            mContext.registerReceiver(mWifiScanReceiver,
+                    new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+            mRegistered = true;
+        }
+    }
+
+    @Override
+    public void stop() {
+        if (mRegistered) {
+            mContext.unregisterReceiver(mWifiScanReceiver);
+            mRegistered = false;
+        }
+    }
+
+    @Override
+    public boolean requestScan() {
+        boolean accepted = mWifiManager.startScan();
+        mRequestTime = accepted ? System.nanoTime() : 0;
+        return accepted;
+    }
+
+    /**
+     * Returns whether the platform limits scan requests to {@link #THROTTLE_MAX_SCANS} per
+     * {@link #THROTTLE_WINDOW}. Throttling exists since Android 9 and can be switched off in
+     * the developer options since Android 11.
+     */
+    public boolean isScanThrottled() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return mWifiManager.isScanThrottleEnabled();
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+    }
+
+    /**
+     * Copies scan results into a snapshot. The content hash includes when every AP was last
+     * seen, so results the platform returns again from its cache hash the same, while a new
+     * scan with the same readings does not.
+     */
+    public static ScanSnapshot toSnapshot(List<ScanResult> results) {
+        int size = results.size();
+        long[] macs = new long[size];
+        byte[] rssi = new byte[size];
+        String[] ssids = new String[size];
+        long hash = 0;
+        for (int i = 0; i < size; i++) {
+            ScanResult result = results.get(i);
+            macs[i] = ScanSnapshot.packMac(result.BSSID);
+            rssi[i] = ScanSnapshot.toRssiByte(result.level);
+            ssids[i] = result.SSID;
+            hash += ScanSnapshot.hashAp(macs[i], rssi[i], result.timestamp);
+        }
+        return new ScanSnapshot(System.currentTimeMillis(), macs, rssi, ssids, hash);
+    }
+
+    private class WifiScanReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (mRequestTime != 0) {
+                REQUEST_TO_RESULT_TIME.recordSince(mRequestTime);
+                mRequestTime = 0;
+            }
+            if (mListener != null) {
+                mListener.onScanAvailable(toSnapshot(mWifiManager.getScanResults()));
+            }
+        }
+    }
+}
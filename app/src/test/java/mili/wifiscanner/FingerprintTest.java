@@ -0,0 +1,76 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class FingerprintTest {
+    private static final int MISSING = -100;
+
+    private static Fingerprint fingerprint(int[] indices, int[] values) {
+        return new Fingerprint(indices, values, indices.length);
+    }
+
+    private static double denseDistance(Fingerprint a, Fingerprint b, int size) {
+        double[] x = new double[size];
+        double[] y = new double[size];
+        a.toDense(x, MISSING);
+        b.toDense(y, MISSING);
+        double sum = 0;
+        for (int i = 0; i < size; i++) {
+            sum += (x[i] - y[i]) * (x[i] - y[i]);
+        }
+        return Math.sqrt(sum);
+    }
+
+    @Test
+    public void toDense_fillsMissingEntries() {
+        double[] dense = new double[4];
+        fingerprint(new int[]{1, 3}, new int[]{-50, -70}).toDense(dense, MISSING);
+        assertEquals(MISSING, dense[0], 0);
+        assertEquals(-50, dense[1], 0);
+        assertEquals(MISSING, dense[2], 0);
+        assertEquals(-70, dense[3], 0);
+    }
+
+    @Test
+    public void distance_treatsApsSeenOnOneSideAsMissing() {
+        Fingerprint a = fingerprint(new int[]{0, 2}, new int[]{-40, -70});
+        Fingerprint b = fingerprint(new int[]{2, 5}, new int[]{-60, -90});
+        // AP 0: 60, AP 2: 10, AP 5: 10
+        assertEquals(Math.sqrt(3600 + 100 + 100), Fingerprint.distance(a, b, MISSING), 1e-9);
+        assertEquals(Fingerprint.distance(a, b, MISSING), Fingerprint.distance(b, a, MISSING),
+                0);
+        assertEquals(0, Fingerprint.distance(a, a, MISSING), 0);
+        Fingerprint empty = fingerprint(new int[0], new int[0]);
+        assertEquals(0, Fingerprint.distance(empty, empty, MISSING), 0);
+        assertEquals(Math.sqrt(3600 + 900), Fingerprint.distance(a, empty, MISSING), 1e-9);
+    }
+
+    @Test
+    public void distance_matchesTheDenseDistance() {
+        Random random = new Random(9);
+        int size = 40;
+        for (int i = 0; i < 1000; i++) {
+            Fingerprint a = randomFingerprint(random, size);
+            Fingerprint b = randomFingerprint(random, size);
+            assertEquals(denseDistance(a, b, size), Fingerprint.distance(a, b, MISSING), 1e-9);
+        }
+    }
+
+    private static Fingerprint randomFingerprint(Random random, int size) {
+        int[] indices = new int[size];
+        int[] values = new int[size];
+        int n = 0;
+        for (int i = 0; i < size; i++) {
+            if (random.nextInt(4) == 0) {
+                indices[n] = i;
+                values[n] = -95 + random.nextInt(65);
+                n++;
+            }
+        }
+        return new Fingerprint(indices, values, n);
+    }
+}
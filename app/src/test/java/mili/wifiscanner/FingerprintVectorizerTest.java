@@ -0,0 +1,60 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FingerprintVectorizerTest {
+    private static final String[] BSSIDS = {"00:00:00:00:00:0a", "not a bssid",
+            "00:00:00:00:00:0c", "00:00:00:00:00:0b"};
+
+    private final FingerprintVectorizer mVectorizer = new FingerprintVectorizer(BSSIDS);
+
+    private static ScanSnapshot scan(String[] bssids, int[] rssi) {
+        long[] macs = new long[bssids.length];
+        byte[] values = new byte[bssids.length];
+        for (int i = 0; i < bssids.length; i++) {
+            macs[i] = ScanSnapshot.packMac(bssids[i]);
+            values[i] = ScanSnapshot.toRssiByte(rssi[i]);
+        }
+        return new ScanSnapshot(0, macs, values, null);
+    }
+
+    @Test
+    public void indexOf_findsOnlyTheVocabulary() {
+        assertEquals(4, mVectorizer.size());
+        assertEquals(0, mVectorizer.indexOf(0x0a));
+        assertEquals(3, mVectorizer.indexOf(0x0b));
+        assertEquals(2, mVectorizer.indexOf(0x0c));
+        assertEquals(-1, mVectorizer.indexOf(0x0d));
+        assertEquals(-1, mVectorizer.indexOf(-1));
+    }
+
+    @Test
+    public void vectorize_sortsByIndexAndDropsUnknownBssids() {
+        Fingerprint fingerprint = mVectorizer.vectorize(scan(
+                new String[]{"00:00:00:00:00:0b", "00:00:00:00:00:0d", "00:00:00:00:00:0a",
+                        "garbage"},
+                new int[]{-60, -30, -70, -20}));
+        assertEquals(2, fingerprint.size());
+        assertEquals(0, fingerprint.indexAt(0));
+        assertEquals(-70, fingerprint.valueAt(0));
+        assertEquals(3, fingerprint.indexAt(1));
+        assertEquals(-60, fingerprint.valueAt(1));
+    }
+
+    @Test
+    public void vectorize_keepsTheStrongestOfDuplicates() {
+        Fingerprint fingerprint = mVectorizer.vectorize(scan(
+                new String[]{"00:00:00:00:00:0c", "00:00:00:00:00:0c", "00:00:00:00:00:0c"},
+                new int[]{-80, -55, -65}));
+        assertEquals(1, fingerprint.size());
+        assertEquals(2, fingerprint.indexAt(0));
+        assertEquals(-55, fingerprint.valueAt(0));
+    }
+
+    @Test
+    public void vectorize_ofAnEmptyScanIsEmpty() {
+        assertEquals(0, mVectorizer.vectorize(scan(new String[0], new int[0])).size());
+    }
+}
@@ -0,0 +1,118 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class FingerprintWindowTest {
+    private static final int NUM_BSSIDS = 4;
+
+    /**
+     * Returns a fingerprint of the given (index, value) pairs, indices ascending.
+     */
+    private static Fingerprint fingerprint(int... pairs) {
+        int[] indices = new int[pairs.length / 2];
+        int[] values = new int[pairs.length / 2];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = pairs[i * 2];
+            values[i] = pairs[i * 2 + 1];
+        }
+        return new Fingerprint(indices, values, indices.length);
+    }
+
+    private static int valueOf(Fingerprint fingerprint, int bssid) {
+        for (int i = 0; i < fingerprint.size(); i++) {
+            if (fingerprint.indexAt(i) == bssid) {
+                return fingerprint.valueAt(i);
+            }
+        }
+        throw new AssertionError("BSSID " + bssid + " not in fingerprint");
+    }
+
+    @Test
+    public void median_isTheLowerMedian() {
+        FingerprintWindow window = new FingerprintWindow(NUM_BSSIDS, 4, 0,
+                FingerprintWindow.Aggregate.MEDIAN);
+        window.add(0, fingerprint(0, -50, 1, -40));
+        window.add(1, fingerprint(0, -70));
+        window.add(2, fingerprint(0, -60, 1, -30));
+        Fingerprint odd = window.aggregate(1);
+        assertEquals(-60, valueOf(odd, 0));
+        assertEquals(-40, valueOf(odd, 1));
+
+        window.add(3, fingerprint(0, -80));
+        assertEquals(-70, valueOf(window.aggregate(1), 0));
+    }
+
+    @Test
+    public void max_isTheStrongestReading() {
+        FingerprintWindow window = new FingerprintWindow(NUM_BSSIDS, 4, 0,
+                FingerprintWindow.Aggregate.MAX);
+        window.add(0, fingerprint(2, -90));
+        window.add(1, fingerprint(2, -45));
+        window.add(2, fingerprint(2, -60));
+        assertEquals(-45, valueOf(window.aggregate(1), 2));
+    }
+
+    @Test
+    public void mean_isRounded() {
+        FingerprintWindow window = new FingerprintWindow(NUM_BSSIDS, 4, 0,
+                FingerprintWindow.Aggregate.MEAN);
+        window.add(0, fingerprint(3, -50));
+        window.add(1, fingerprint(3, -53));
+        assertEquals(-51, valueOf(window.aggregate(1), 3));
+    }
+
+    @Test
+    public void fullWindow_dropsTheOldestScan() {
+        FingerprintWindow window = new FingerprintWindow(NUM_BSSIDS, 2, 0,
+                FingerprintWindow.Aggregate.MAX);
+        window.add(0, fingerprint(0, -30, 1, -60));
+        window.add(1, fingerprint(1, -70));
+        window.add(2, fingerprint(1, -80));
+        assertEquals(2, window.numScans());
+        assertEquals(0, window.getDetections(0));
+        Fingerprint aggregate = window.aggregate(1);
+        assertEquals(1, aggregate.size());
+        assertEquals(-70, valueOf(aggregate, 1));
+    }
+
+    @Test
+    public void expire_dropsScansOlderThanTheMaxAge() {
+        FingerprintWindow window = new FingerprintWindow(NUM_BSSIDS, 8, 1000,
+                FingerprintWindow.Aggregate.MEDIAN);
+        window.add(0, fingerprint(0, -40));
+        window.add(500, fingerprint(0, -60));
+        window.add(1200, fingerprint(0, -80));
+        assertEquals(2, window.numScans());
+        assertEquals(-80, valueOf(window.aggregate(1), 0));
+
+        window.expire(2300);
+        assertEquals(0, window.numScans());
+        assertEquals(0, window.aggregate(1).size());
+    }
+
+    @Test
+    public void aggregate_skipsRarelySeenBssids() {
+        FingerprintWindow window = new FingerprintWindow(NUM_BSSIDS, 4, 0,
+                FingerprintWindow.Aggregate.MEDIAN);
+        window.add(0, fingerprint(0, -50, 2, -70));
+        window.add(1, fingerprint(0, -55, 3, -65));
+        window.add(2, fingerprint(0, -52, 2, -75));
+        Fingerprint aggregate = window.aggregate(2);
+        assertEquals(2, aggregate.size());
+        assertEquals(0, aggregate.indexAt(0));
+        assertEquals(2, aggregate.indexAt(1));
+        assertEquals(-75, aggregate.valueAt(1));
+    }
+
+    @Test
+    public void readingsOutsideTheRange_areClamped() {
+        FingerprintWindow window = new FingerprintWindow(NUM_BSSIDS, 4, 0,
+                FingerprintWindow.Aggregate.MAX);
+        window.add(0, fingerprint(0, -200));
+        assertEquals(FingerprintWindow.RSSI_MIN, valueOf(window.aggregate(1), 0));
+        window.add(1, fingerprint(0, 20));
+        assertEquals(FingerprintWindow.RSSI_MAX, valueOf(window.aggregate(1), 0));
+    }
+}
@@ -0,0 +1,169 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HistogramLocalizerTest {
+    private static final String[] BSSIDS = {"00:00:00:00:00:01", "00:00:00:00:00:02",
+            "00:00:00:00:00:03"};
+    private static final int SCANS_PER_ROOM = 10;
+
+    /**
+     * Returns a fingerprint of the given (index, value) pairs, indices ascending.
+     */
+    private static Fingerprint fingerprint(int... pairs) {
+        int[] indices = new int[pairs.length / 2];
+        int[] values = new int[pairs.length / 2];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = pairs[i * 2];
+            values[i] = pairs[i * 2 + 1];
+        }
+        return new Fingerprint(indices, values, indices.length);
+    }
+
+    /**
+     * Room 0 hears AP 0 strongly and AP 1 weakly, room 1 hears AP 0 weakly and AP 2 strongly.
+     */
+    private static RadioMap separatedRooms() {
+        RadioMap map = new RadioMap(BSSIDS, 2);
+        for (int i = 0; i < SCANS_PER_ROOM; i++) {
+            map.update(0, fingerprint(0, -40 - i % 3, 1, -80 - i % 3));
+            map.update(1, fingerprint(0, -80 - i % 3, 2, -40 - i % 3));
+        }
+        return map;
+    }
+
+    /**
+     * Computes the posterior of every room the slow way: the prior times, for every BSSID of the
+     * vocabulary, either the probability of its bin or the probability of missing it, all
+     * Laplace smoothed with 1.
+     */
+    private static double[] posteriors(RadioMap map, Fingerprint fingerprint) {
+        int numRooms = map.numRooms();
+        int totalScans = 0;
+        for (int room = 0; room < numRooms; room++) {
+            totalScans += map.getRoomScans(room);
+        }
+        double[] logs = new double[numRooms];
+        int[] histogram = new int[RadioMap.NUM_BINS];
+        for (int room = 0; room < numRooms; room++) {
+            int scans = map.getRoomScans(room);
+            double log = Math.log((scans + 1.0) / (totalScans + numRooms));
+            for (int b = 0; b < map.numBssids(); b++) {
+                int count = map.getCount(room, b);
+                double pSeen = (count + 1.0) / (scans + 2);
+                boolean seen = false;
+                for (int i = 0; i < fingerprint.size(); i++) {
+                    if (fingerprint.indexAt(i) == b) {
+                        map.getHistogram(room, b, histogram);
+                        double pBin = (histogram[RadioMap.binOf(fingerprint.valueAt(i))] + 1.0)
+                                / (count + RadioMap.NUM_BINS);
+                        log += Math.log(pSeen * pBin);
+                        seen = true;
+                    }
+                }
+                if (!seen) {
+                    log += Math.log(1 - pSeen);
+                }
+            }
+            logs[room] = log;
+        }
+        double max = Double.NEGATIVE_INFINITY;
+        for (double log : logs) {
+            max = Math.max(max, log);
+        }
+        double sum = 0;
+        for (double log : logs) {
+            sum += Math.exp(log - max);
+        }
+        double[] posteriors = new double[numRooms];
+        for (int room = 0; room < numRooms; room++) {
+            posteriors[room] = Math.exp(logs[room] - max) / sum;
+        }
+        return posteriors;
+    }
+
+    @Test
+    public void separatedRooms_areRecognizedWithHighConfidence() {
+        HistogramLocalizer localizer = HistogramLocalizer.fromRadioMap(separatedRooms());
+        assertEquals(0, localizer.classify(fingerprint(0, -41, 1, -79)));
+        assertTrue(localizer.getLastConfidence() > 0.99f);
+        assertEquals(1, localizer.classify(fingerprint(0, -81, 2, -42)));
+        assertTrue(localizer.getLastConfidence() > 0.99f);
+    }
+
+    @Test
+    public void missingAp_countsAgainstTheRoomsThatAlwaysSeeIt() {
+        RadioMap map = new RadioMap(BSSIDS, 2);
+        for (int i = 0; i < SCANS_PER_ROOM; i++) {
+            map.update(0, fingerprint(0, -50));
+            map.update(1, fingerprint(0, -50, 1, -60));
+        }
+        HistogramLocalizer localizer = HistogramLocalizer.fromRadioMap(map);
+        // Only the detection rate of AP 1 tells the rooms apart.
+        assertEquals(0, localizer.classify(fingerprint(0, -50)));
+        assertTrue(localizer.getLastConfidence() > 0.9f);
+        assertEquals(1, localizer.classify(fingerprint(0, -50, 1, -60)));
+        assertTrue(localizer.getLastConfidence() > 0.9f);
+    }
+
+    @Test
+    public void emptyBins_areSmoothed() {
+        HistogramLocalizer localizer = HistogramLocalizer.fromRadioMap(separatedRooms());
+        // AP 2 in a bin neither room ever saw it in
+        int room = localizer.classify(fingerprint(0, -40, 1, -80, 2, -95));
+        assertEquals(0, room);
+        float confidence = localizer.getLastConfidence();
+        assertTrue(confidence > 0.5f && confidence < 1);
+        assertEquals(posteriors(separatedRooms(), fingerprint(0, -40, 1, -80, 2, -95))[0],
+                confidence, 1e-4);
+    }
+
+    @Test
+    public void emptyMap_isUndecided() {
+        HistogramLocalizer localizer = HistogramLocalizer.fromRadioMap(new RadioMap(BSSIDS, 4));
+        assertEquals(0, localizer.classify(fingerprint(1, -60)));
+        assertEquals(0.25, localizer.getLastConfidence(), 1e-6);
+    }
+
+    @Test
+    public void scores_matchTheFullNaiveBayesPosterior() {
+        Random random = new Random(5);
+        RadioMap map = new RadioMap(BSSIDS, 3);
+        for (int i = 0; i < 60; i++) {
+            int room = random.nextInt(3);
+            int[] pairs = new int[BSSIDS.length * 2];
+            int size = 0;
+            for (int b = 0; b < BSSIDS.length; b++) {
+                if (random.nextInt(4) > room % 2) {
+                    pairs[size++] = b;
+                    pairs[size++] = -95 + random.nextInt(60) - 10 * room;
+                }
+            }
+            map.update(room, fingerprint(Arrays.copyOf(pairs, size)));
+        }
+        HistogramLocalizer localizer = HistogramLocalizer.fromRadioMap(map);
+        for (int i = 0; i < 200; i++) {
+            int[] pairs = new int[BSSIDS.length * 2];
+            int size = 0;
+            for (int b = 0; b < BSSIDS.length; b++) {
+                if (random.nextBoolean()) {
+                    pairs[size++] = b;
+                    pairs[size++] = -105 + random.nextInt(80);
+                }
+            }
+            Fingerprint scan = fingerprint(Arrays.copyOf(pairs, size));
+            double[] expected = posteriors(map, scan);
+            int room = localizer.classify(scan);
+            for (int other = 0; other < expected.length; other++) {
+                assertTrue(expected[room] >= expected[other] - 1e-4);
+            }
+            assertEquals(expected[room], localizer.getLastConfidence(), 1e-4);
+        }
+    }
+}
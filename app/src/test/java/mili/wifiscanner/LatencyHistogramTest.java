@@ -0,0 +1,71 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+    private final LatencyHistogram mHistogram = new LatencyHistogram("test");
+
+    @Test
+    public void smallValues_haveExactBuckets() {
+        for (int i = 0; i < 8; i++) {
+            mHistogram.record(i);
+        }
+        assertEquals(8, mHistogram.getCount());
+        assertEquals(3, mHistogram.getPercentile(50));
+        assertEquals(7, mHistogram.getPercentile(100));
+        assertEquals(3.5, mHistogram.getMean(), 1e-9);
+    }
+
+    @Test
+    public void percentile_isWithinAnEighthAboveTheValue() {
+        Random random = new Random(7);
+        for (int i = 0; i < 10000; i++) {
+            LatencyHistogram histogram = new LatencyHistogram("test");
+            long value = 8 + (random.nextLong() >>> (24 + random.nextInt(32)));
+            histogram.record(value);
+            // A larger maximum, so the percentile is the upper bound of the bucket of value.
+            histogram.record(value * 4);
+            long percentile = histogram.getPercentile(50);
+            assertTrue(value + " as " + percentile,
+                    percentile >= value && percentile <= value + value / 8);
+        }
+    }
+
+    @Test
+    public void bucketBoundaries_splitPowersOfTwoIntoEighths() {
+        // 16 to 17 share a bucket, 18 starts the next one.
+        mHistogram.record(16);
+        mHistogram.record(1000);
+        assertEquals(17, mHistogram.getPercentile(50));
+        mHistogram.reset();
+        mHistogram.record(18);
+        mHistogram.record(1000);
+        assertEquals(19, mHistogram.getPercentile(50));
+    }
+
+    @Test
+    public void hugeAndNegativeValues_areClamped() {
+        mHistogram.record(-5);
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getPercentile(100));
+        long huge = 1L << 50;
+        mHistogram.record(huge);
+        assertEquals(huge, mHistogram.getMax());
+        assertEquals(huge, mHistogram.getPercentile(100));
+    }
+
+    @Test
+    public void reset_forgetsEverything() {
+        mHistogram.record(100);
+        mHistogram.reset();
+        assertEquals(0, mHistogram.getCount());
+        assertEquals(0, mHistogram.getMax());
+        assertEquals(0, mHistogram.getPercentile(50));
+        assertEquals(0, mHistogram.getMean(), 0);
+    }
+}
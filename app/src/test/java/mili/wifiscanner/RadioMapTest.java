@@ -0,0 +1,121 @@
+package mili.wifiscanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class RadioMapTest {
+    private static final String[] BSSIDS = {"00:00:00:00:00:01", "00:00:00:00:00:02",
+            "00:00:00:00:00:03"};
+    private static final int NUM_ROOMS = 2;
+
+    private File mFile;
+
+    @Before
+    public void setUp() throws IOException {
+        mFile = File.createTempFile("radiomap", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        mFile.delete();
+    }
+
+    private static Fingerprint fingerprint(int[] indices, int[] values) {
+        return new Fingerprint(indices, values, indices.length);
+    }
+
+    @Test
+    public void saveAndLoad_keepEveryStatistic() throws IOException {
+        RadioMap map = new RadioMap(BSSIDS, NUM_ROOMS);
+        map.update(0, fingerprint(new int[]{0, 2}, new int[]{-50, -80}));
+        map.update(0, fingerprint(new int[]{0}, new int[]{-55}));
+        map.update(1, fingerprint(new int[]{1, 2}, new int[]{-65, -95}));
+        map.update(1, fingerprint(new int[]{1}, new int[]{-61}));
+        map.update(1, fingerprint(new int[0], new int[0]));
+        map.save(mFile);
+
+        RadioMap loaded = RadioMap.load(mFile, BSSIDS, NUM_ROOMS);
+        assertNotNull(loaded);
+        int[] expected = new int[RadioMap.NUM_BINS];
+        int[] actual = new int[RadioMap.NUM_BINS];
+        for (int room = 0; room < NUM_ROOMS; room++) {
+            assertEquals(map.getRoomScans(room), loaded.getRoomScans(room));
+            for (int bssid = 0; bssid < BSSIDS.length; bssid++) {
+                assertEquals(map.getCount(room, bssid), loaded.getCount(room, bssid));
+                assertEquals(map.getMean(room, bssid), loaded.getMean(room, bssid), 1e-4);
+                assertEquals(map.getVariance(room, bssid), loaded.getVariance(room, bssid), 1e-4);
+                assertEquals(map.getDetectionRate(room, bssid),
+                        loaded.getDetectionRate(room, bssid), 0);
+                map.getHistogram(room, bssid, expected);
+                loaded.getHistogram(room, bssid, actual);
+                for (int bin = 0; bin < RadioMap.NUM_BINS; bin++) {
+                    assertEquals(expected[bin], actual[bin]);
+                }
+            }
+        }
+        assertEquals(-52.5, loaded.getMean(0, 0), 1e-4);
+        assertEquals(12.5, loaded.getVariance(0, 0), 1e-4);
+        assertEquals(2.0 / 3, loaded.getDetectionRate(1, 1), 1e-9);
+    }
+
+    @Test
+    public void save_replacesTheFileThroughATemporaryOne() throws IOException {
+        RadioMap map = new RadioMap(BSSIDS, NUM_ROOMS);
+        map.save(mFile);
+        map.update(1, fingerprint(new int[]{2}, new int[]{-70}));
+        map.save(mFile);
+        assertFalse(new File(mFile.getPath() + ".tmp").exists());
+        assertEquals(1, RadioMap.load(mFile, BSSIDS, NUM_ROOMS).getCount(1, 2));
+    }
+
+    @Test
+    public void load_rejectsAnotherVocabularyOrRoomCount() throws IOException {
+        new RadioMap(BSSIDS, NUM_ROOMS).save(mFile);
+        assertNull(RadioMap.load(mFile, new String[]{"00:00:00:00:00:01"}, NUM_ROOMS));
+        assertNull(RadioMap.load(mFile, new String[]{BSSIDS[0], BSSIDS[2], BSSIDS[1]},
+                NUM_ROOMS));
+        assertNull(RadioMap.load(mFile, BSSIDS, NUM_ROOMS + 1));
+        assertNotNull(RadioMap.load(mFile, BSSIDS, NUM_ROOMS));
+    }
+
+    @Test
+    public void load_returnsNullForMissingOrCorruptFiles() throws IOException {
+        mFile.delete();
+        assertNull(RadioMap.load(mFile, BSSIDS, NUM_ROOMS));
+
+        // A header that matches, followed by a cell index past the end of the map
+        new RadioMap(BSSIDS, NUM_ROOMS).save(mFile);
+        byte[] header = Files.readAllBytes(mFile.toPath());
+        DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile));
+        try {
+            // Everything up to the number of used cells, which is the last int of an empty map
+            out.write(header, 0, header.length - 4);
+            out.writeInt(1);
+            out.writeInt(NUM_ROOMS * BSSIDS.length);
+        } finally {
+            out.close();
+        }
+        assertNull(RadioMap.load(mFile, BSSIDS, NUM_ROOMS));
+
+        // A file cut short
+        out = new DataOutputStream(new FileOutputStream(mFile));
+        try {
+            out.write(header, 0, header.length / 2);
+        } finally {
+            out.close();
+        }
+        assertNull(RadioMap.load(mFile, BSSIDS, NUM_ROOMS));
+    }
+}
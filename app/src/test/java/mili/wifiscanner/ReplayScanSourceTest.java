@@ -0,0 +1,100 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ReplayScanSourceTest {
+    private static final ScanSnapshot FIRST = new ScanSnapshot(1600000000123L,
+            new long[]{0x0a1b2c3d4e5fL, 0x020000000001L}, new byte[]{-48, -91}, null);
+    private static final ScanSnapshot SECOND = new ScanSnapshot(1600000005456L,
+            new long[]{0x020000000001L}, new byte[]{-77}, null);
+    private static final ScanSnapshot EMPTY = new ScanSnapshot(1600000010789L,
+            new long[0], new byte[0], null);
+
+    private final List<ScanSnapshot> mDelivered = new ArrayList<>();
+
+    /**
+     * Returns a source over what DataWriter logs for FIRST and SECOND in room 1, a repeat of
+     * SECOND and EMPTY in room 3.
+     */
+    private ReplayScanSource replayLog() throws IOException {
+        String log = DataWriter.formatScan("1", FIRST)
+                + DataWriter.formatScan("1", SECOND)
+                + DataWriter.formatRepeat("1", SECOND.withLabel("1").asRepeat())
+                + DataWriter.formatScan("3", EMPTY);
+        ReplayScanSource source = new ReplayScanSource(new StringReader(log));
+        source.setListener(mDelivered::add);
+        return source;
+    }
+
+    private static void assertSameReadings(ScanSnapshot expected, ScanSnapshot actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.macAt(i), actual.macAt(i));
+            assertEquals(expected.rssiAt(i), actual.rssiAt(i));
+        }
+        assertEquals(expected.getContentHash(), actual.getContentHash());
+    }
+
+    @Test
+    public void dataWriterLog_isReplayedInOrderWithRooms() throws IOException {
+        ReplayScanSource source = replayLog();
+        assertEquals(4, source.size());
+        while (source.requestScan()) {
+            // Delivered on this thread
+        }
+        assertEquals(4, mDelivered.size());
+
+        ScanSnapshot first = mDelivered.get(0);
+        assertSameReadings(FIRST, first);
+        assertEquals(FIRST.getTimestamp(), first.getTimestamp());
+        assertEquals("1", first.getLabel());
+        assertFalse(first.isRepeat());
+
+        assertSameReadings(SECOND, mDelivered.get(1));
+        assertEquals("1", mDelivered.get(1).getLabel());
+
+        ScanSnapshot repeat = mDelivered.get(2);
+        assertTrue(repeat.isRepeat());
+        assertSameReadings(SECOND, repeat);
+        assertEquals("1", repeat.getLabel());
+
+        ScanSnapshot empty = mDelivered.get(3);
+        assertEquals(0, empty.size());
+        assertEquals(EMPTY.getTimestamp(), empty.getTimestamp());
+        assertEquals("3", empty.getLabel());
+    }
+
+    @Test
+    public void loop_startsOverAfterTheLastScan() throws IOException {
+        ReplayScanSource source = replayLog();
+        source.setLoop(true);
+        for (int i = 0; i < 6; i++) {
+            assertTrue(source.requestScan());
+        }
+        assertEquals(FIRST.getTimestamp(), mDelivered.get(4).getTimestamp());
+        assertEquals(SECOND.getTimestamp(), mDelivered.get(5).getTimestamp());
+    }
+
+    @Test
+    public void foreignLines_areSkipped() throws IOException {
+        String log = "2020-09-13 14:26:40.123\n1.5\n"
+                + "repeat room 2 2020-09-13 14:26:40.123\n\n"
+                + DataWriter.formatScan("2", FIRST)
+                + "not a scan line\n";
+        ReplayScanSource source = new ReplayScanSource(new StringReader(log));
+        source.setListener(mDelivered::add);
+        assertEquals(1, source.size());
+        assertTrue(source.requestScan());
+        assertSameReadings(FIRST, mDelivered.get(0));
+        assertFalse(source.requestScan());
+    }
+}
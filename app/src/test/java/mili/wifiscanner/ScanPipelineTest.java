@@ -0,0 +1,196 @@
+package mili.wifiscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScanPipelineTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+    private static final int NUM_SCANS = 2000;
+    private static final int NUM_ROOMS = 4;
+
+    private final ScanPipeline mPipeline = new ScanPipeline(16);
+    private final SyntheticScanSource mSource =
+            new SyntheticScanSource(20, NUM_ROOMS, 4, 0.05, 11);
+
+    private final Tracer.Backend mPreviousBackend = Tracer.getBackend();
+
+    @After
+    public void tearDown() {
+        mSource.stop();
+        mPipeline.close();
+        Tracer.setBackend(mPreviousBackend);
+    }
+
+    private static void awaitCaughtUp(ScanRingBuffer.Subscriber subscriber)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscriber.getLag() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Consumer did not catch up: " + subscriber);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    /**
+     * Runs the synthetic source at the given rate until the pipeline published NUM_SCANS scans.
+     */
+    private void publishAtRate(double rate) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        long[] observed = {0};
+        mPipeline.setObserver(snapshot -> {
+            // Stopping on the producer thread publishes exactly NUM_SCANS scans.
+            if (++observed[0] == NUM_SCANS) {
+                mPipeline.stop();
+            }
+        });
+        mSource.setListener(snapshot -> {
+            mPipeline.onScanAvailable(snapshot);
+            if (!mPipeline.isStarted()) {
+                done.countDown();
+            }
+        });
+        mSource.setRate(rate);
+        mPipeline.start();
+        mSource.start();
+        assertTrue(done.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        mSource.stop();
+        assertEquals(NUM_SCANS, mPipeline.getPublished());
+    }
+
+    @Test
+    public void syntheticSource_countsEveryScanAsConsumedOrDropped() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(1 << 16);
+        Tracer.setBackend(recorder);
+        List<Long> blocked = Collections.synchronizedList(new ArrayList<>());
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        ScanRingBuffer.Subscriber lossless = mPipeline.subscribe("lossless",
+                ScanRingBuffer.Policy.BLOCK, 4, (snapshot, sequence) -> {
+            blocked.add(sequence);
+            int room = Integer.parseInt(snapshot.getLabel());
+            if (room < 0 || room >= NUM_ROOMS) {
+                errors.add("Room " + snapshot.getLabel());
+            }
+        });
+        // Slower than the source, so it has to drop scans.
+        ScanRingBuffer.Subscriber slow = mPipeline.subscribe("slow",
+                ScanRingBuffer.Policy.DROP_OLDEST, 4, (snapshot, sequence) -> {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        ScanRingBuffer.Subscriber latest = mPipeline.subscribe("latest",
+                ScanRingBuffer.Policy.COALESCE, 1, (snapshot, sequence) -> {
+        });
+
+        publishAtRate(5000);
+        for (ScanRingBuffer.Subscriber subscriber : mPipeline.getSubscribers()) {
+            awaitCaughtUp(subscriber);
+            assertEquals(subscriber.toString(), NUM_SCANS,
+                    subscriber.getConsumed() + subscriber.getDropped());
+        }
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(NUM_SCANS, lossless.getConsumed());
+        assertEquals(0, lossless.getDropped());
+        for (int i = 0; i < NUM_SCANS; i++) {
+            assertEquals(i, (long) blocked.get(i));
+        }
+        assertTrue(slow.toString(), slow.getDropped() > 0);
+        assertTrue(latest.getConsumed() > 0);
+
+        // Every publish and every consumed scan is one traced section on its own thread.
+        mPipeline.close();
+        List<TraceRecorderTest.Event> events = TraceRecorderTest.export(recorder);
+        assertEquals(NUM_SCANS, TraceRecorderTest.count(events, "scan.publish"));
+        for (ScanRingBuffer.Subscriber subscriber : new ScanRingBuffer.Subscriber[]{lossless,
+                slow, latest}) {
+            assertEquals(subscriber.getConsumed(),
+                    TraceRecorderTest.count(events, subscriber.getName()));
+        }
+    }
+
+    @Test
+    public void repeatedContent_isMarkedUntilRestart() {
+        List<ScanSnapshot> observed = new ArrayList<>();
+        mPipeline.setObserver(observed::add);
+        ScanSnapshot scan = new ScanSnapshot(1, new long[]{1, 2}, new byte[]{-50, -60}, null);
+        ScanSnapshot reordered = new ScanSnapshot(2, new long[]{2, 1}, new byte[]{-60, -50},
+                null);
+        mPipeline.onScanAvailable(scan);
+        assertTrue(observed.isEmpty());
+
+        mPipeline.start();
+        mPipeline.onScanAvailable(scan);
+        mPipeline.onScanAvailable(reordered);
+        mPipeline.stop();
+        mPipeline.start();
+        mPipeline.onScanAvailable(scan);
+        assertEquals(3, observed.size());
+        assertFalse(observed.get(0).isRepeat());
+        assertTrue(observed.get(1).isRepeat());
+        assertFalse(observed.get(2).isRepeat());
+        assertEquals(3, mPipeline.getPublished());
+    }
+
+    @Test
+    public void trainingMode_isDecidedWhenTheScanIsPublished() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        List<Boolean> training = Collections.synchronizedList(new ArrayList<>());
+        ScanRingBuffer.Subscriber subscriber = mPipeline.subscribe("learner",
+                ScanRingBuffer.Policy.BLOCK, 4, (snapshot, sequence) -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            training.add(snapshot.isTraining());
+        });
+        mSource.setListener(mPipeline);
+        mPipeline.setTraining(true);
+        mPipeline.start();
+        mSource.requestScan();
+        mSource.requestScan();
+        // Switching modes while the consumer still holds both scans
+        mPipeline.setTraining(false);
+        mSource.requestScan();
+        assertFalse(subscriber.awaitCaughtUp(10));
+        release.countDown();
+        assertTrue(subscriber.awaitCaughtUp(TIMEOUT_MILLIS));
+        assertEquals(Arrays.asList(true, true, false), training);
+    }
+
+    @Test
+    public void label_replacesTheLabelOfTheSourceOnlyWhenSet() throws InterruptedException {
+        List<String> labels = Collections.synchronizedList(new ArrayList<>());
+        ScanRingBuffer.Subscriber subscriber = mPipeline.subscribe("labels",
+                ScanRingBuffer.Policy.BLOCK, 4, (snapshot, sequence) -> {
+            labels.add(snapshot.getLabel());
+        });
+        mSource.setListener(mPipeline);
+        mPipeline.start();
+        mSource.requestScan();
+        mPipeline.setLabel("kitchen");
+        mSource.requestScan();
+        mPipeline.setLabel(null);
+        mPipeline.onScanAvailable(new ScanSnapshot(1, new long[0], new byte[0], null));
+        awaitCaughtUp(subscriber);
+        assertEquals("0", labels.get(0));
+        assertEquals("kitchen", labels.get(1));
+        assertNull(labels.get(2));
+    }
+}
@@ -0,0 +1,178 @@
+package mili.wifiscanner;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScanRingBufferTest {
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    private final ScanRingBuffer mRing = new ScanRingBuffer(16);
+    private final List<Long> mReceived = Collections.synchronizedList(new ArrayList<>());
+    private final CountDownLatch mEntered = new CountDownLatch(1);
+    private final CountDownLatch mRelease = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        mRelease.countDown();
+        mRing.close();
+    }
+
+    private static ScanSnapshot scan(long timestamp) {
+        return new ScanSnapshot(timestamp, new long[0], new byte[0], null);
+    }
+
+    /**
+     * Subscribes a consumer that records the sequences it gets and holds the first scan until
+     * {@link #mRelease} opens, so the test can queue scans behind it.
+     */
+    private ScanRingBuffer.Subscriber subscribeHeld(ScanRingBuffer.Policy policy, int depth) {
+        return mRing.subscribe("test", policy, depth, (snapshot, sequence) -> {
+            assertEquals(sequence, snapshot.getTimestamp());
+            if (sequence == 0) {
+                mEntered.countDown();
+                try {
+                    mRelease.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            mReceived.add(sequence);
+        });
+    }
+
+    /**
+     * Publishes scan 0, waits until the consumer holds it, publishes scans 1 to last and lets
+     * the consumer go.
+     */
+    private void publishBehindHeldScan(long last) throws InterruptedException {
+        mRing.publish(scan(0));
+        assertTrue(mEntered.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        for (long i = 1; i <= last; i++) {
+            mRing.publish(scan(i));
+        }
+        mRelease.countDown();
+    }
+
+    private static void awaitCaughtUp(ScanRingBuffer.Subscriber subscriber)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscriber.getLag() > 0) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("Consumer did not catch up: " + subscriber);
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void dropOldest_skipsToTheLastDepthScans() throws InterruptedException {
+        ScanRingBuffer.Subscriber subscriber = subscribeHeld(ScanRingBuffer.Policy.DROP_OLDEST, 3);
+        publishBehindHeldScan(9);
+        awaitCaughtUp(subscriber);
+        assertEquals(Arrays.asList(0L, 7L, 8L, 9L), mReceived);
+        assertEquals(4, subscriber.getConsumed());
+        assertEquals(6, subscriber.getDropped());
+    }
+
+    @Test
+    public void dropNewest_keepsTheFirstDepthScans() throws InterruptedException {
+        ScanRingBuffer.Subscriber subscriber = subscribeHeld(ScanRingBuffer.Policy.DROP_NEWEST, 3);
+        publishBehindHeldScan(9);
+        awaitCaughtUp(subscriber);
+        assertEquals(Arrays.asList(0L, 1L, 2L), mReceived);
+        assertEquals(3, subscriber.getConsumed());
+        assertEquals(7, subscriber.getDropped());
+    }
+
+    @Test
+    public void coalesce_skipsToTheLatestScan() throws InterruptedException {
+        ScanRingBuffer.Subscriber subscriber = subscribeHeld(ScanRingBuffer.Policy.COALESCE, 3);
+        publishBehindHeldScan(9);
+        awaitCaughtUp(subscriber);
+        assertEquals(Arrays.asList(0L, 9L), mReceived);
+        assertEquals(8, subscriber.getDropped());
+    }
+
+    @Test
+    public void block_deliversEveryScanInOrder() throws InterruptedException {
+        ScanRingBuffer.Subscriber subscriber = mRing.subscribe("test",
+                ScanRingBuffer.Policy.BLOCK, 2, (snapshot, sequence) -> {
+            assertEquals(sequence, snapshot.getTimestamp());
+            mReceived.add(sequence);
+        });
+        int count = 1000;
+        for (int i = 0; i < count; i++) {
+            mRing.publish(scan(i));
+        }
+        awaitCaughtUp(subscriber);
+        assertEquals(count, mReceived.size());
+        for (int i = 0; i < count; i++) {
+            assertEquals(i, (long) mReceived.get(i));
+        }
+        assertEquals(0, subscriber.getDropped());
+    }
+
+    @Test
+    public void dropNewest_underContention_deliversOnlyMatchingScans() throws InterruptedException {
+        int count = 200000;
+        long[] last = {-1};
+        List<String> errors = Collections.synchronizedList(new ArrayList<>());
+        ScanRingBuffer.Subscriber subscriber = mRing.subscribe("test",
+                ScanRingBuffer.Policy.DROP_NEWEST, 4, (snapshot, sequence) -> {
+            if (snapshot.getTimestamp() != sequence || sequence <= last[0]) {
+                errors.add("Scan " + snapshot.getTimestamp() + " as " + sequence);
+            }
+            last[0] = sequence;
+        });
+        for (int i = 0; i < count; i++) {
+            mRing.publish(scan(i));
+        }
+        awaitCaughtUp(subscriber);
+        assertEquals(Collections.emptyList(), errors);
+        assertEquals(count, subscriber.getConsumed() + subscriber.getDropped());
+    }
+
+    @Test
+    public void throwingConsumer_keepsConsuming() throws InterruptedException {
+        ScanRingBuffer.Subscriber subscriber = mRing.subscribe("test",
+                ScanRingBuffer.Policy.BLOCK, 2, (snapshot, sequence) -> {
+            if (sequence % 2 == 0) {
+                throw new IllegalStateException("Scan " + sequence);
+            }
+            mReceived.add(sequence);
+        });
+        for (int i = 0; i < 10; i++) {
+            mRing.publish(scan(i));
+        }
+        awaitCaughtUp(subscriber);
+        assertEquals(Arrays.asList(1L, 3L, 5L, 7L, 9L), mReceived);
+        assertEquals(10, subscriber.getConsumed());
+    }
+
+    @Test
+    public void deadConsumer_doesNotBlockTheProducer() throws InterruptedException {
+        mRing.subscribe("test", ScanRingBuffer.Policy.BLOCK, 2, (snapshot, sequence) -> {
+            throw new AssertionError("Scan " + sequence);
+        });
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 100; i++) {
+                mRing.publish(scan(i));
+            }
+        });
+        producer.start();
+        producer.join(TIMEOUT_MILLIS);
+        assertFalse("Producer still waits for the dead consumer", producer.isAlive());
+    }
+}
@@ -0,0 +1,92 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ScanSnapshotTest {
+    private static final ScanSnapshot SCAN = new ScanSnapshot(42,
+            new long[]{0x0a0b0c0d0e0fL, 0x020000000001L}, new byte[]{-50, -70}, null);
+
+    @Test
+    public void contentHash_ignoresTheOrderOfTheAps() {
+        ScanSnapshot reordered = new ScanSnapshot(43,
+                new long[]{0x020000000001L, 0x0a0b0c0d0e0fL}, new byte[]{-70, -50}, null);
+        assertEquals(SCAN.getContentHash(), reordered.getContentHash());
+    }
+
+    @Test
+    public void contentHash_changesWithAnyReading() {
+        ScanSnapshot weaker = new ScanSnapshot(42,
+                new long[]{0x0a0b0c0d0e0fL, 0x020000000001L}, new byte[]{-50, -71}, null);
+        ScanSnapshot fewer = new ScanSnapshot(42,
+                new long[]{0x0a0b0c0d0e0fL}, new byte[]{-50}, null);
+        // The same readings on swapped APs
+        ScanSnapshot swapped = new ScanSnapshot(42,
+                new long[]{0x0a0b0c0d0e0fL, 0x020000000001L}, new byte[]{-70, -50}, null);
+        assertTrue(SCAN.getContentHash() != weaker.getContentHash());
+        assertTrue(SCAN.getContentHash() != fewer.getContentHash());
+        assertTrue(SCAN.getContentHash() != swapped.getContentHash());
+    }
+
+    @Test
+    public void contentHash_canIncludeWhenApsWereSeen() {
+        long cached = ScanSnapshot.hashAp(0x0a0b0c0d0e0fL, -50, 1000)
+                + ScanSnapshot.hashAp(0x020000000001L, -70, 2000);
+        long rescanned = ScanSnapshot.hashAp(0x0a0b0c0d0e0fL, -50, 3000)
+                + ScanSnapshot.hashAp(0x020000000001L, -70, 2000);
+        assertTrue(cached != rescanned);
+        ScanSnapshot snapshot = new ScanSnapshot(42,
+                new long[]{0x0a0b0c0d0e0fL, 0x020000000001L}, new byte[]{-50, -70}, null, cached);
+        assertEquals(cached, snapshot.getContentHash());
+    }
+
+    @Test
+    public void markers_keepTheScanAndEachOther() {
+        assertFalse(SCAN.isRepeat());
+        assertFalse(SCAN.isTraining());
+        assertNull(SCAN.getLabel());
+
+        ScanSnapshot repeat = SCAN.withLabel("3").asRepeat();
+        assertTrue(repeat.isRepeat());
+        assertEquals("3", repeat.getLabel());
+        assertEquals(SCAN.getContentHash(), repeat.getContentHash());
+        assertEquals(SCAN.getTimestamp(), repeat.getTimestamp());
+        assertEquals(SCAN.size(), repeat.size());
+        assertEquals(SCAN.macAt(1), repeat.macAt(1));
+        assertEquals(SCAN.rssiAt(1), repeat.rssiAt(1));
+
+        ScanSnapshot relabeled = repeat.asTraining().withLabel("4");
+        assertTrue(relabeled.isRepeat());
+        assertTrue(relabeled.isTraining());
+        assertEquals("4", relabeled.getLabel());
+        // The original is immutable.
+        assertFalse(SCAN.isRepeat());
+        assertNull(SCAN.getLabel());
+    }
+
+    @Test
+    public void macs_roundTrip() {
+        assertEquals(0x0a0b0c0d0e0fL, ScanSnapshot.packMac("0a:0b:0c:0d:0e:0f"));
+        assertEquals(0xffffffffffffL, ScanSnapshot.packMac("FF:ff:FF:ff:FF:ff"));
+        assertEquals("0a:0b:0c:0d:0e:0f", ScanSnapshot.formatMac(0x0a0b0c0d0e0fL));
+        assertEquals(-1, ScanSnapshot.packMac(null));
+        assertEquals(-1, ScanSnapshot.packMac("0a:0b:0c:0d:0e"));
+        assertEquals(-1, ScanSnapshot.packMac("0a-0b-0c-0d-0e-0f"));
+        assertEquals(-1, ScanSnapshot.packMac("0a:0b:0c:0d:0e:0g"));
+    }
+
+    @Test
+    public void arraysOfDifferentLengths_areRejected() {
+        try {
+            new ScanSnapshot(0, new long[2], new byte[1], null);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Every AP needs a MAC and an RSSI.
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentGridTest {
+    private static final float MIN = -3;
+    private static final float MAX = 3;
+    private static final int CELLS = 16;
+
+    private final SegmentGrid mGrid = new SegmentGrid(MIN, MIN, MAX, MAX, CELLS, CELLS);
+
+    /**
+     * Returns whether the segment intersects the rectangle, clipping it to each side in turn.
+     */
+    private static boolean intersects(float[] s, float left, float bottom, float right,
+                                      float top) {
+        double t0 = 0;
+        double t1 = 1;
+        double dx = s[2] - s[0];
+        double dy = s[3] - s[1];
+        double[] p = {-dx, dx, -dy, dy};
+        double[] q = {s[0] - left, right - s[0], s[1] - bottom, top - s[1]};
+        for (int i = 0; i < 4; i++) {
+            if (p[i] == 0) {
+                if (q[i] < 0) {
+                    return false;
+                }
+            } else if (p[i] < 0) {
+                t0 = Math.max(t0, q[i] / p[i]);
+            } else {
+                t1 = Math.min(t1, q[i] / p[i]);
+            }
+        }
+        return t0 <= t1;
+    }
+
+    private static boolean contains(int[] results, int count, int segment) {
+        for (int i = 0; i < count; i++) {
+            if (results[i] == segment) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static float[] randomSegment(Random random, float range) {
+        return new float[]{(random.nextFloat() * 2 - 1) * range,
+                (random.nextFloat() * 2 - 1) * range,
+                (random.nextFloat() * 2 - 1) * range,
+                (random.nextFloat() * 2 - 1) * range};
+    }
+
+    @Test
+    public void query_findsEveryIntersectingSegmentOnce() {
+        Random random = new Random(42);
+        float[][] segments = new float[2000][];
+        for (int i = 0; i < segments.length; i++) {
+            // Some segments reach outside the bounds of the grid.
+            segments[i] = randomSegment(random, 4);
+            mGrid.add(segments[i][0], segments[i][1], segments[i][2], segments[i][3]);
+        }
+        assertEquals(segments.length, mGrid.size());
+        for (int query = 0; query < 500; query++) {
+            float[] rect = randomSegment(random, 4);
+            float left = Math.min(rect[0], rect[2]);
+            float right = Math.max(rect[0], rect[2]);
+            float bottom = Math.min(rect[1], rect[3]);
+            float top = Math.max(rect[1], rect[3]);
+            int found = mGrid.query(left, top, right, bottom);
+            int[] results = mGrid.getResults();
+            for (int i = 0; i < found; i++) {
+                float[] s = segments[results[i]];
+                assertFalse("Reported twice: " + results[i],
+                        contains(results, i, results[i]));
+                assertTrue(Math.min(s[0], s[2]) <= right && Math.max(s[0], s[2]) >= left
+                        && Math.min(s[1], s[3]) <= top && Math.max(s[1], s[3]) >= bottom);
+            }
+            for (int i = 0; i < segments.length; i++) {
+                if (intersects(segments[i], left, bottom, right, top)) {
+                    assertTrue("Missed segment " + i, contains(results, found, i));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void query_skipsDiagonalFarFromRectangle() {
+        // A long diagonal crosses about 2 * CELLS cells but its bounding box covers them all.
+        mGrid.add(MIN, MIN, MAX, MAX);
+        assertEquals(0, mGrid.query(MIN, MAX - 0.5f, MIN + 0.5f, MAX));
+        assertEquals(0, mGrid.query(MAX - 0.5f, MIN + 0.5f, MAX, MIN));
+        assertEquals(1, mGrid.query(-0.1f, 0.1f, 0.1f, -0.1f));
+        assertEquals(0, mGrid.getResults()[0]);
+    }
+
+    @Test
+    public void query_findsSegmentsOutsideTheBoundsInBorderCells() {
+        mGrid.add(MAX + 1, MIN - 1, MAX + 2, MAX + 1);
+        assertEquals(1, mGrid.query(MAX + 1.4f, 0.1f, MAX + 1.6f, -0.1f));
+        assertEquals(0, mGrid.query(MIN - 2, 0.1f, MIN - 1, -0.1f));
+    }
+
+    @Test
+    public void clear_removesAllSegments() {
+        mGrid.add(MIN, MIN, MAX, MAX);
+        mGrid.add(0, 0, 1, 1);
+        mGrid.clear();
+        assertEquals(0, mGrid.size());
+        assertEquals(0, mGrid.query(MIN, MAX, MAX, MIN));
+    }
+}
@@ -0,0 +1,97 @@
+package mili.wifiscanner;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentPyramidTest {
+    private static final float TOLERANCE = 1;
+
+    private final SegmentPyramid mPyramid =
+            new SegmentPyramid(0, 0, 16, 16, TOLERANCE, 3, 8);
+
+    @Test
+    public void levels_halveTheTolerance() {
+        assertEquals(3, mPyramid.getNumLevels());
+        assertEquals(1, mPyramid.getTolerance(0), 0);
+        assertEquals(0.5, mPyramid.getTolerance(1), 0);
+        assertEquals(0.25, mPyramid.getTolerance(2), 0);
+        assertEquals(0, mPyramid.levelFor(2));
+        assertEquals(1, mPyramid.levelFor(1));
+        assertEquals(2, mPyramid.levelFor(0.3f));
+        assertEquals(-1, mPyramid.levelFor(0.25f));
+    }
+
+    @Test
+    public void add_keepsOneSegmentPerBucketPair() {
+        // Same level 0 buckets at both ends, different ones at level 2.
+        mPyramid.add(0.1f, 0.1f, 5.1f, 5.1f);
+        mPyramid.add(0.6f, 0.6f, 5.6f, 5.6f);
+        // Different level 0 buckets
+        mPyramid.add(1.1f, 0.1f, 5.1f, 5.1f);
+        assertEquals(2 * 4, mPyramid.getSegments(0).size());
+        assertEquals(3 * 4, mPyramid.getSegments(2).size());
+        // The kept segment is the first one, with its exact coordinates.
+        FloatSeries coarse = mPyramid.getSegments(0);
+        assertEquals(0.1f, coarse.get(0), 0);
+        assertEquals(5.1f, coarse.get(3), 0);
+        assertEquals(1.1f, coarse.get(4), 0);
+    }
+
+    @Test
+    public void grids_indexTheKeptSegmentsOfTheirLevel() {
+        Random random = new Random(3);
+        float x = 8;
+        float y = 8;
+        for (int i = 0; i < 5000; i++) {
+            float nextX = Math.max(0, Math.min(16, x + random.nextFloat() - 0.5f));
+            float nextY = Math.max(0, Math.min(16, y + random.nextFloat() - 0.5f));
+            mPyramid.add(x, y, nextX, nextY);
+            x = nextX;
+            y = nextY;
+        }
+        for (int level = 0; level < mPyramid.getNumLevels(); level++) {
+            FloatSeries segments = mPyramid.getSegments(level);
+            SegmentGrid grid = mPyramid.getGrid(level);
+            assertEquals(segments.size() / 4, grid.size());
+            // Every kept segment is found around its start.
+            for (int s = 0; s < grid.size(); s++) {
+                float sx = segments.get(s * 4);
+                float sy = segments.get(s * 4 + 1);
+                int found = grid.query(sx - 0.01f, sy + 0.01f, sx + 0.01f, sy - 0.01f);
+                boolean hit = false;
+                for (int i = 0; i < found; i++) {
+                    hit |= grid.getResults()[i] == s;
+                }
+                assertTrue("Level " + level + " misses segment " + s, hit);
+            }
+        }
+        // Coarser levels keep fewer segments.
+        assertTrue(mPyramid.getSegments(0).size() < mPyramid.getSegments(1).size());
+        assertTrue(mPyramid.getSegments(1).size() < mPyramid.getSegments(2).size());
+    }
+
+    @Test
+    public void clear_forgetsTheKeys() {
+        mPyramid.add(0.1f, 0.1f, 5.1f, 5.1f);
+        mPyramid.clear();
+        assertEquals(0, mPyramid.getSegments(0).size());
+        assertEquals(0, mPyramid.getGrid(0).size());
+        mPyramid.add(0.1f, 0.1f, 5.1f, 5.1f);
+        assertEquals(4, mPyramid.getSegments(0).size());
+    }
+
+    @Test
+    public void tooManyLevels_areRejected() {
+        try {
+            new SegmentPyramid(0, 0, 16, 16, TOLERANCE, 20, 8);
+            fail("Expected an IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+            // Bucket coordinates would not fit into the key.
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package mili.wifiscanner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TraceRecorderTest {
+    private static final Pattern EVENT = Pattern.compile(
+            "\\{\"ph\":\"(.)\",\"name\":\"((?:[^\"\\\\]|\\\\.)*)\","
+            + "\"ts\":([0-9.E-]+)(?:,\"dur\":([0-9.E-]+))?,\"pid\":1,\"tid\":(\\d+)}");
+
+    /**
+     * One exported trace event.
+     */
+    static class Event {
+        final char mPhase;
+        final String mName;
+        final double mTs;
+        final double mDur;
+        final long mTid;
+
+        Event(char phase, String name, double ts, double dur, long tid) {
+            mPhase = phase;
+            mName = name;
+            mTs = ts;
+            mDur = dur;
+            mTid = tid;
+        }
+    }
+
+    private Tracer.Backend mPreviousBackend;
+
+    @Before
+    public void setUp() {
+        mPreviousBackend = Tracer.getBackend();
+    }
+
+    @After
+    public void tearDown() {
+        Tracer.setBackend(mPreviousBackend);
+    }
+
+    /**
+     * Exports the recorder and parses every event, failing on anything that does not look like
+     * one of its events. Durations of begin events are -1.
+     */
+    static List<Event> export(TraceRecorder recorder) throws IOException {
+        StringWriter writer = new StringWriter();
+        recorder.writeChromeJson(writer);
+        String json = writer.toString();
+        assertTrue(json, json.startsWith("{\"traceEvents\":[") && json.endsWith("]}\n"));
+        String body = json.substring("{\"traceEvents\":[".length(), json.length() - 3);
+        List<Event> events = new ArrayList<>();
+        if (body.isEmpty()) {
+            return events;
+        }
+        for (String line : body.split(",\n")) {
+            Matcher matcher = EVENT.matcher(line);
+            assertTrue(line, matcher.matches());
+            events.add(new Event(matcher.group(1).charAt(0), matcher.group(2),
+                    Double.parseDouble(matcher.group(3)),
+                    matcher.group(4) == null ? -1 : Double.parseDouble(matcher.group(4)),
+                    Long.parseLong(matcher.group(5))));
+        }
+        return events;
+    }
+
+    /**
+     * Returns the number of complete events of the given name.
+     */
+    static int count(List<Event> events, String name) {
+        int count = 0;
+        for (Event event : events) {
+            if (event.mPhase == 'X' && event.mName.equals(name)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void nestedSections_becomeCompleteEventsInsideEachOther() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(64);
+        Tracer.setBackend(recorder);
+        Tracer.begin("outer");
+        Tracer.begin("inner");
+        Thread.sleep(2);
+        Tracer.end();
+        Tracer.end();
+        assertEquals(4, recorder.getRecorded());
+
+        List<Event> events = export(recorder);
+        assertEquals(2, events.size());
+        Event inner = events.get(0);
+        Event outer = events.get(1);
+        assertEquals("inner", inner.mName);
+        assertEquals("outer", outer.mName);
+        for (Event event : events) {
+            assertEquals('X', event.mPhase);
+            assertEquals(Thread.currentThread().getId(), event.mTid);
+        }
+        assertTrue(inner.mDur >= 2000);
+        assertTrue(inner.mTs >= outer.mTs);
+        assertTrue(inner.mTs + inner.mDur <= outer.mTs + outer.mDur);
+    }
+
+    @Test
+    public void sectionsOfOtherThreads_keepTheirThreadIds() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(64);
+        Tracer.setBackend(recorder);
+        long[] workerId = new long[1];
+        Tracer.begin("main");
+        // The worker's end must not close the section of this thread.
+        Thread worker = new Thread(() -> {
+            workerId[0] = Thread.currentThread().getId();
+            Tracer.begin("worker");
+            Tracer.end();
+        });
+        worker.start();
+        worker.join();
+        Tracer.end();
+
+        List<Event> events = export(recorder);
+        assertEquals(2, events.size());
+        assertEquals("worker", events.get(0).mName);
+        assertEquals(workerId[0], events.get(0).mTid);
+        assertEquals("main", events.get(1).mName);
+        assertEquals(Thread.currentThread().getId(), events.get(1).mTid);
+        assertTrue(events.get(1).mDur >= events.get(0).mDur);
+    }
+
+    @Test
+    public void fullRing_keepsTheNewestEventsAndSkipsOrphanedEnds() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(3);
+        Tracer.setBackend(recorder);
+        for (int i = 0; i < 3; i++) {
+            Tracer.begin("section" + i);
+            Tracer.end();
+        }
+        assertEquals(6, recorder.getRecorded());
+        // Only the end of section1 and both events of section2 are left.
+        List<Event> events = export(recorder);
+        assertEquals(1, events.size());
+        assertEquals("section2", events.get(0).mName);
+
+        recorder.clear();
+        assertEquals(0, export(recorder).size());
+    }
+
+    @Test
+    public void openSections_areExportedAsBeginEvents() throws Exception {
+        TraceRecorder recorder = new TraceRecorder(16);
+        Tracer.setBackend(recorder);
+        Tracer.begin("open \"outer\"");
+        Tracer.begin("open inner");
+        Tracer.begin("done");
+        Tracer.end();
+
+        List<Event> events = export(recorder);
+        assertEquals(3, events.size());
+        assertEquals('X', events.get(0).mPhase);
+        assertEquals('B', events.get(1).mPhase);
+        assertEquals("open \\\"outer\\\"", events.get(1).mName);
+        assertEquals(-1, events.get(1).mDur, 0);
+        assertEquals("open inner", events.get(2).mName);
+        assertFalse(events.get(2).mTs < events.get(1).mTs);
+    }
+}